@@ -0,0 +1,99 @@
+package com.namekis.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * JMH benchmarks of the xmvn pipeline. JMH refuses benchmarks in the default package and xmvn lives there, so the work is
+ * behind {@link Pipeline}, implemented by the xmvnbench script and looked up once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class XmvnBenchmark {
+  /** The benchmarked operations on a synthesized maven tree. */
+  public interface Pipeline {
+    void setup(int modules) throws Exception;
+
+    void tearDown() throws Exception;
+
+    Object parsePom();
+
+    Object loadRootPom();
+
+    void resolveProperties(Consumer<Object> sink);
+
+    void emitDeps(Consumer<Object> sink);
+
+    void generate(Consumer<Object> sink);
+
+    Object toGraph() throws Exception;
+  }
+
+  /** Class implementing {@link Pipeline}, in the default package. */
+  public static final String PIPELINE_CLASS = "xmvnbench";
+
+  @Param({ "50", "500" })
+  public int modules;
+
+  private Pipeline pipeline;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    pipeline = (Pipeline) Class.forName(PIPELINE_CLASS).getDeclaredConstructor().newInstance();
+    pipeline.setup(modules);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    pipeline.tearDown();
+  }
+
+  @Benchmark
+  public Object parsePom() {
+    return pipeline.parsePom();
+  }
+
+  @Benchmark
+  public Object loadRootPom() {
+    return pipeline.loadRootPom();
+  }
+
+  @Benchmark
+  public void resolveProperties(Blackhole bh) {
+    pipeline.resolveProperties(bh::consume);
+  }
+
+  @Benchmark
+  public void emitDeps(Blackhole bh) {
+    pipeline.emitDeps(bh::consume);
+  }
+
+  @Benchmark
+  public void generate(Blackhole bh) {
+    pipeline.generate(bh::consume);
+  }
+
+  @Benchmark
+  public Object toGraph() throws Exception {
+    return pipeline.toGraph();
+  }
+}
@@ -198,7 +198,9 @@ public class mvn2zild {
         ZildTask jarExec = new ZildTask();
         jarExec.name = "jar";
         jarExec.process = "jar";
-        jarExec.inputs = List.of(dir + "/target/classes");
+        // resources get their own directory: tasks sharing an output would delete each other's files on cache restores
+        jarExec.inputs = exists(dir + "/src/main/resources") ? List.of(dir + "/target/classes", dir + "/target/resources")
+            : List.of(dir + "/target/classes");
         jarExec.outputs = List
             .of(dir + "/target/" + mod.artifactId + "-" + (mod.version != null ? mod.version : "SNAPSHOT") + ".jar");
         zm.tasks.add(jarExec);
@@ -221,7 +223,7 @@ public class mvn2zild {
         procRes.name = "process-resources";
         procRes.process = "copy";
         procRes.inputs = List.of(dir + "/src/main/resources");
-        procRes.outputs = List.of(dir + "/target/classes");
+        procRes.outputs = List.of(dir + "/target/resources");
         zm.tasks.add(procRes);
       }
 
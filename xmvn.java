@@ -2,6 +2,7 @@
 //Description: Convert Multimodule Maven pom.xml to Gradle build.gradle.kts
 //DEPS info.picocli:picocli:4.7.7
 //DEPS com.fasterxml.jackson.dataformat:jackson-dataformat-xml:2.17.1
+//DEPS com.fasterxml.jackson.dataformat:jackson-dataformat-yaml:2.17.1
 //DEPS com.fasterxml.jackson.core:jackson-databind:2.17.1
 //DEPS com.fasterxml.jackson.core:jackson-annotations:2.17.1
 //DEPS org.zeroturnaround:zt-exec:1.12
@@ -9,6 +10,7 @@
 //DEPS com.google.guava:guava:32.1.2-jre
 //SOURCES com/namekis/utils/RichCli.java
 //FILES xmvn-graph.html
+//FILES xmvn-plugins.yaml
 
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -22,7 +24,9 @@ import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
@@ -31,7 +35,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.SortedMap;
 import java.util.StringJoiner;
 import java.util.TreeMap;
 import java.util.TreeSet;
@@ -60,6 +63,7 @@ import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlProperty;
 import com.google.common.graph.Traverser;
 import com.namekis.utils.RichCli;
 
+import one.util.streamex.EntryStream;
 import one.util.streamex.StreamEx;
 import picocli.CommandLine;
 import picocli.CommandLine.Option;
@@ -73,7 +77,8 @@ public class xmvn {
 
   @CommandLine.Command(name = "xmvn", mixinStandardHelpOptions = true, version = "0.1", description = """
       xmvn - extract Maven models and emit them in other formats.""", subcommands = { xmvn.ToGradle.class, xmvn.ToArangoGraph.class,
-      xmvn.ToGraph.class })
+      xmvn.ToGraph.class, xmvn.Analyze.class, xmvn.Batch.class, xmvn.VerifyGradle.class,
+      xmvn.BuildCommand.class, xmvn.ToEclipse.class, xmvn.ResolveClasspath.class })
   static class XmvnRoot implements Runnable {
     @Override
     public void run() {
@@ -102,30 +107,49 @@ public class xmvn {
 
     @Option(names = "--debug-repositories", description = "Debug info on repositories", defaultValue = "false", showDefaultValue = CommandLine.Help.Visibility.ON_DEMAND)
     public boolean debugRepositories = false;
+
+    @Option(names = "--link-threads", description = "Threads resolving parents and modules of the loaded poms (default: ${DEFAULT-VALUE})", defaultValue = "1")
+    public int linkThreads = 1;
   }
 
   @CommandLine.Command(name = "2graph", mixinStandardHelpOptions = true, description = """
       Generate Sigma.js visualization from Maven multi-module project.
       Produces:
-      - graph-data.json : Graphology JSON with nodes and edges (unless --no-embed-data)
-      - graph.html      : HTML viewer using Sigma.js
+      - xmvn-graph.html         : HTML viewer using Sigma.js with the graph data embedded
+      - xmvn-graph-data.json    : Graphology JSON with nodes and edges (only with --no-embed-data)
+      - xmvn-graph-data.json.gz : same, gzip compressed (only with --gzip-data)
       """)
   public static class ToGraph extends LoadPomOptions implements Callable<Integer> {
-    @Option(names = "--embed-data", negatable = true, description = "Embed JSON data directly in HTML (default: true)", defaultValue = "true")
+    @Option(names = "--embed-data", negatable = true, description = "Embed JSON data directly in HTML (default: true)", defaultValue = "true", fallbackValue = "true")
     private boolean embedData;
 
+    @Option(names = "--pretty", negatable = true, description = "Pretty print the JSON data. Use --no-pretty for compact output on large graphs (default: true)", defaultValue = "true", fallbackValue = "true")
+    private boolean pretty;
+
+    @Option(names = "--gzip-data", description = "Write the JSON data gzip compressed in a separate file loaded by the viewer (implies --no-embed-data). The viewer must be served over http.", defaultValue = "false")
+    private boolean gzipData;
+
+    @Option(names = "--layout", description = "Precompute node positions so the viewer skips its own layout: ${COMPLETION-CANDIDATES} (default: ${DEFAULT-VALUE})", defaultValue = "none")
+    private GraphLayout.Kind layout;
+
+    @Option(names = "--layout-iterations", description = "ForceAtlas2 iteration budget (default: ${DEFAULT-VALUE})", defaultValue = "100")
+    private int layoutIterations;
+
+    @Option(names = "--barnes-hut", negatable = true, description = "Approximate ForceAtlas2 repulsion with a Barnes-Hut quadtree, O(n log n) instead of O(n^2) (default: true)", defaultValue = "true", fallbackValue = "true")
+    private boolean barnesHut;
+
+    @Option(names = "--barnes-hut-theta", description = "Barnes-Hut accuracy, lower is more exact (default: ${DEFAULT-VALUE})", defaultValue = "1.2")
+    private double barnesHutTheta;
+
+    @Option(names = "--layout-threads", description = "Threads computing ForceAtlas2 forces (default: available processors)")
+    private Integer layoutThreads;
+
     @Override
     public Integer call() throws Exception {
       generateGraphFiles();
       return 0;
     }
 
-    public class GraphData {
-      public SortedMap<String, Node> nodes = new TreeMap<>();
-      public SortedMap<String, Edge> edges = new TreeMap<>();
-      public Map<String, Object> attributes = new LinkedHashMap<>();
-    }
-
     public static class Node {
       public final String key;
       public final NodeAttributes attributes;
@@ -234,322 +258,2326 @@ public class xmvn {
       }
     }
 
+    private static final String DATA_START = "/* XMVN_DATA_START */";
+    private static final String DATA_END = "/* XMVN_DATA_END */";
+
     private void generateGraphFiles() {
-      var rootPom = xmvn.PomLoader.loadRootPom(this);
-      GraphData graph = new GraphData();
-      Traverser<xmvn.Project> traverser = Traverser.forTree(p -> {
-        if (p.modules != null && p.modules.modules != null) {
-          return p.children().stream().filter(Objects::nonNull).toList();
-        }
-        return List.of();
-      });
-      traverser.depthFirstPreOrder(rootPom).forEach(p -> emitProjectAndDeps(p, graph, "effective"));
-      log.info("Graph has {} nodes and {} edges", graph.nodes.size(), graph.edges.size());
+      var rootPom = new PomLoaderSession(this).loadRootPom();
+      DependencyGraph graph = DependencyGraph.of(rootPom);
+      log.info("Graph has {} nodes and {} edges", graph.nodeCount(), graph.edgeCount());
+      GraphLayout positions = computeLayout(graph);
       ObjectMapper om = new ObjectMapper();
+      om.disable(com.fasterxml.jackson.databind.SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
       try {
-        Map<String, Object> g = Map.of("nodes", new ArrayList<>(graph.nodes.values()), "edges", new ArrayList<>(graph.edges.values()));
-        String jsonString = om.writerWithDefaultPrettyPrinter().writeValueAsString(g);
-
-        // --- Load HTML template from classpath ---
+        // --- Load HTML template from classpath and split it around the data markers ---
         String html;
         try (InputStream in = getClass().getResourceAsStream("/xmvn-graph.html")) {
           if (in == null)
             throw new FileNotFoundException("Resource not found: /xmvn-graph.html");
           html = new String(in.readAllBytes(), java.nio.charset.StandardCharsets.UTF_8);
         }
-
-        String replaced = html.replaceAll("(?s)/\\* XMVN_DATA_START \\*/.*?/\\* XMVN_DATA_END \\*/",
-            "/* XMVN_DATA_START */\n" + jsonString + "\n/* XMVN_DATA_END */");
+        int start = html.indexOf(DATA_START);
+        int end = html.indexOf(DATA_END, start);
+        if (start < 0 || end < 0)
+          throw new IllegalStateException("Template /xmvn-graph.html has no " + DATA_START + " ... " + DATA_END + " section");
+
+        String dataExpression = null;
+        if (!embedData || gzipData) {
+          File dataFile = new File(projectDir, gzipData ? "xmvn-graph-data.json.gz" : "xmvn-graph-data.json");
+          try (var out = Files.newOutputStream(dataFile.toPath());
+              var writer = new java.io.OutputStreamWriter(gzipData ? new java.util.zip.GZIPOutputStream(out, 1 << 16) : out,
+                  java.nio.charset.StandardCharsets.UTF_8)) {
+            writeGraphJson(om, writer, graph, positions);
+          }
+          log.info("Graph data written to {}", dataFile.getAbsolutePath());
+          // the viewer is a module script so it can await the data. Browsers block fetch from file:// so serve the folder over http.
+          dataExpression = gzipData
+              ? "await new Response((await fetch(\"%s\")).body.pipeThrough(new DecompressionStream(\"gzip\"))).json()".formatted(dataFile.getName())
+              : "await (await fetch(\"%s\")).json()".formatted(dataFile.getName());
+        }
 
         File htmlFile = new File(projectDir, "xmvn-graph.html");
-        Files.writeString(htmlFile.toPath(), replaced, java.nio.charset.StandardCharsets.UTF_8);
+        try (var writer = Files.newBufferedWriter(htmlFile.toPath(), java.nio.charset.StandardCharsets.UTF_8)) {
+          writer.write(html, 0, start + DATA_START.length());
+          writer.write("\n");
+          if (dataExpression != null) {
+            writer.write(dataExpression);
+          } else {
+            writeGraphJson(om, writer, graph, positions);
+          }
+          writer.write("\n");
+          writer.write(html, end, html.length() - end);
+        }
         log.info("Sigma v3 HTML with filters+highlight written to {}", htmlFile.getAbsolutePath());
       } catch (IOException e) {
-        throw new RuntimeException("Cannot write graph-data.json", e);
+        throw new RuntimeException("Cannot write graph files", e);
       }
     }
 
-    private void emitProjectAndDeps(xmvn.Project projectOrig, GraphData graph, String mode) {
-      Project project = projectOrig.effectivePomOrThis();
-      log.info("Emit project {} (pom: {})", project.idAndPath(), mode);
-      String projKey = project.ga();
+    /**
+     * Streams the graph as Graphology JSON. Nodes are ordered by key and edges by source, relation and target.
+     * Only one node or edge object exists at a time.
+     */
+    void writeGraphJson(ObjectMapper om, java.io.Writer writer, DependencyGraph graph, GraphLayout positions) throws IOException {
+      try (com.fasterxml.jackson.core.JsonGenerator gen = om.getFactory().createGenerator(writer)) {
+        gen.configure(com.fasterxml.jackson.core.JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+        if (pretty)
+          gen.useDefaultPrettyPrinter();
+        int[] sorted = graph.nodesSortedByGa();
+        int[] rank = new int[sorted.length];
+        for (int i = 0; i < sorted.length; i++)
+          rank[sorted[i]] = i;
+
+        gen.writeStartObject();
+        if (positions != null) {
+          // tells the viewer the coordinates are final
+          gen.writeObjectFieldStart("attributes");
+          gen.writeStringField("layout", positions.name);
+          gen.writeEndObject();
+        }
+        gen.writeArrayFieldStart("nodes");
+        for (int id : sorted) {
+          gen.writeObject(toSigmaNode(graph, id, positions));
+        }
+        gen.writeEndArray();
+
+        gen.writeArrayFieldStart("edges");
+        int[] outStart = graph.outStart();
+        int[] outEdges = graph.outEdges();
+        for (int source : sorted) {
+          int from = outStart[source];
+          int count = outStart[source + 1] - from;
+          long[] order = new long[count];
+          for (int i = 0; i < count; i++) {
+            int e = outEdges[from + i];
+            order[i] = ((long) graph.edgeKind(e) << 58) | ((long) rank[graph.edgeTarget(e)] << 26) | i;
+          }
+          Arrays.sort(order);
+          for (long o : order) {
+            gen.writeObject(toSigmaEdge(graph, outEdges[from + (int) (o & ((1 << 26) - 1))]));
+          }
+        }
+        gen.writeEndArray();
+        gen.writeEndObject();
+      }
+    }
 
-      // ---- Project Node ----
-      //if contains jib-maven-plugin, add to packaging
-      var packaging = project.packaging;
-      if(project.effectivePomOrThis().build != null && project.effectivePomOrThis().build.plugins != null &&
-          project.effectivePomOrThis().build.plugins.plugin.stream().anyMatch(p -> "jib-maven-plugin".equals(p.artifactId))) {
-        packaging = packaging + "+docker(jib)";
+    private GraphLayout computeLayout(DependencyGraph graph) {
+      long started = System.nanoTime();
+      GraphLayout positions = switch (layout) {
+        case none -> null;
+        case layers -> GraphLayout.layers(graph);
+        case forceatlas2 -> GraphLayout.forceAtlas2(graph, layoutIterations, barnesHut, barnesHutTheta,
+            layoutThreads != null ? layoutThreads : Runtime.getRuntime().availableProcessors());
+      };
+      if (positions != null)
+        log.info("Layout {} computed in {} ms", layout, (System.nanoTime() - started) / 1_000_000);
+      return positions;
+    }
+
+    private Node toSigmaNode(DependencyGraph graph, int id, GraphLayout positions) {
+      String nodeType = graph.nodeType(id);
+      double x = positions != null ? positions.x[id] : 0;
+      double y = positions != null ? positions.y[id] : 0;
+      NodeAttributes attrs = new NodeAttributes(graph.ga(id), nodeColor(nodeType), x, y, graph.nodeKind(id) == DependencyGraph.NODE_PROJECT ? 7.0 : 6.0,
+          new NodeMeta(nodeType, graph.buildTool(id), graph.packaging(id), graph.groupId(id), graph.artifactId(id), graph.version(id)));
+      return new Node(graph.ga(id), attrs);
+    }
+
+    private Edge toSigmaEdge(DependencyGraph graph, int e) {
+      String source = graph.ga(graph.edgeSource(e));
+      String target = graph.ga(graph.edgeTarget(e));
+      String scope = graph.edgeScope(e);
+      if (graph.edgeKind(e) == DependencyGraph.EDGE_DEPENDENCY) {
+        String edgeScope = scope != null ? scope : "compile";
+        EdgeAttributes attrs = new EdgeAttributes(1.0, nodeColor(scope), edgeScope,
+            new EdgeMeta(scope, edgeScope, null, null, graph.edgeClassifier(e), graph.edgeType(e)));
+        return new Edge(source + "/" + target, source, target, attrs);
       }
-      NodeAttributes projAttrs = new NodeAttributes(project.ga(), nodeColor("project"), 0, 0, 7.0,
-          new NodeMeta("project", "maven", packaging, project.groupId, project.artifactId, project.version));
-      addNode(graph.nodes, projKey, projAttrs);
+      String relation = graph.edgeRelation(e);
+      EdgeAttributes attrs = new EdgeAttributes(1.0, nodeColor(relation), relation, new EdgeMeta(relation, null, null, relation, null, "pom"));
+      return new Edge(source + "_" + relation + "_" + target, source, target, attrs);
+    }
 
-      // ---- Dependencies ----
-      if (project.dependencies != null && project.dependencies.dependency != null) {
-        for (var dep : project.dependencies.dependency) {
-          String depKey = dep.ga();
+    private String nodeColor(String scope) {
+      //log.info("Color for scope/type {}", scope);
+      if (scope == null)
+        return "#7f7f7f";
+      return switch (scope) {
+      case "project" -> "#1f77b4";   // blue
+      case "compile" -> "red";         // red
+      case "provided" -> "#17becf";  // cyan
+      case "runtime" -> "#2ca02c";   // green
+      case "test" -> "#ff7f0e";      // orange
+      case "system" -> "#9467bd";    // purple
+      case "import" -> "#8c564b";    // brown
+      case "bom" -> "#e377c2";       // pink
+      case "parentDir" -> "#e3A7c2"; // light pink 
+      default -> "#7f7f7f";          // grey
+      };
+    }
+  }
+
+  @CommandLine.Command(name = "2arango", mixinStandardHelpOptions = true, description = """
+      Generate ArangoDB graph from Maven multi-module project.
+      """)
+  public static class ToArangoGraph extends LoadPomOptions implements Callable<Integer> {
+    @Option(names = "--format", description = "aql prints an AQL script, jsonl writes projects/dependencies/edges files for arangoimport: ${COMPLETION-CANDIDATES} (default: ${DEFAULT-VALUE})", defaultValue = "aql")
+    private ArangoFormat format;
+
+    @Option(names = "--output", description = "Folder for the jsonl files (default: <projectDir>/target/arango)")
+    private File output;
 
-          // Node attributes & meta for library/dependency
-          String depType = dep.scope;//("pom".equals(dep.type) && "import".equals(dep.scope)) ? "bom" : "library";
-          String depColor = nodeColor(depType);
-          NodeAttributes depAttrs = new NodeAttributes(dep.ga(), depColor, 0, 0, 6.0, new NodeMeta(depType, null,   // buildTool
-              dep.type, // artifactType
-              dep.groupId, dep.artifactId, dep.version));
-          addNode(graph.nodes, depKey, depAttrs);
+    @Option(names = "--batch-size", description = "Documents per AQL INSERT statement and per flush of the jsonl files (default: ${DEFAULT-VALUE})", defaultValue = "1000")
+    private int batchSize;
 
-          // Edge attributes & meta
-          String edgeType = dep.scope;//"bom".equals(depType) ? "bom-import" : "lib";
-          String edgeColor = depColor;
-          String edgeScope = dep.scope != null ? dep.scope : "compile";
-          EdgeAttributes edgeAttrs = new EdgeAttributes(1.0, edgeColor, edgeScope, new EdgeMeta(edgeType, edgeScope, null, // protocol
-              null, // relation
-              dep.classifier, dep.type));
-          String edgeKey = projKey + "/" + depKey;
-          addEdge(graph.edges, edgeKey, projKey, depKey, edgeAttrs);
+    @CommandLine.Spec
+    CommandLine.Model.CommandSpec spec;
+
+    public enum ArangoFormat {
+      aql, jsonl
+    }
+
+    @Override
+    public Integer call() throws Exception {
+      if (batchSize <= 0)
+        throw new CommandLine.ParameterException(spec.commandLine(), "--batch-size must be positive, was " + batchSize);
+      Project rootPom = new PomLoaderSession(this).loadRootPom();
+      generateArangoGraph(rootPom);
+      return 0;
+    }
+
+    private interface DocumentSink extends java.io.Closeable {
+      void write(Map<String, Object> doc) throws IOException;
+    }
+
+    private void generateArangoGraph(xmvn.Project rootPom) {
+      DependencyGraph graph = DependencyGraph.of(rootPom);
+      ObjectMapper om = new ObjectMapper();
+      om.configure(com.fasterxml.jackson.core.JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+      // the sinks flush per batch, not per document
+      om.disable(com.fasterxml.jackson.databind.SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+      try {
+        if (format == ArangoFormat.jsonl) {
+          File dir = output != null ? output : new File(projectDir, "target/arango");
+          Files.createDirectories(dir.toPath());
+          try (DocumentSink sink = jsonlSink(om, new File(dir, "projects.jsonl"))) {
+            emitProjects(graph, sink);
+          }
+          try (DocumentSink sink = jsonlSink(om, new File(dir, "dependencies.jsonl"))) {
+            emitDependencies(graph, sink);
+          }
+          try (DocumentSink sink = jsonlSink(om, new File(dir, "edges.jsonl"))) {
+            emitEdges(graph, sink);
+          }
+          log.info("Arango documents written to {}", dir.getAbsolutePath());
+          for (String collection : List.of("projects", "dependencies", "edges")) {
+            System.out.println("arangoimport --server.database xmvn --collection %s --create-collection true%s --type jsonl --on-duplicate replace --file %s"
+                .formatted(collection, collection.equals("edges") ? " --create-collection-type edge" : "",
+                    new File(dir, collection + ".jsonl").getPath()));
+          }
+        } else {
+          var out = new java.io.BufferedWriter(new java.io.OutputStreamWriter(System.out, java.nio.charset.StandardCharsets.UTF_8));
+          out.write("""
+              // AQL script for ArangoDB
+              //echo Check password
+              //docker logs arangodb-instance
+              //===========================================
+              //GENERATED ROOT PASSWORD: ***
+              //===========================================
+              //echo Connect to arangodb
+              //docker exec -it arangodb-instance arangosh
+              //echo Create database xmvn
+              //use xmvn
+              """);
+          try (DocumentSink sink = aqlSink(om, out, "projects")) {
+            emitProjects(graph, sink);
+          }
+          try (DocumentSink sink = aqlSink(om, out, "dependencies")) {
+            emitDependencies(graph, sink);
+          }
+          try (DocumentSink sink = aqlSink(om, out, "edges")) {
+            emitEdges(graph, sink);
+          }
+          out.flush();
         }
+      } catch (IOException e) {
+        throw new RuntimeException("Cannot export arango documents", e);
       }
+    }
 
-      if (projectOrig.moduleAgregator != null) {
-        var parent = projectOrig.moduleAgregator.effectivePomOrThis();
-        String parentKey = parent.ga();
-        NodeAttributes parentAttrs = new NodeAttributes(parent.groupId + ":" + parent.artifactId, nodeColor("moduleAgregator"), 0, 0, 6.0,
-            new NodeMeta("moduleAgregator", "maven", "pom", parent.groupId, parent.artifactId, parent.version));
-        addNode(graph.nodes, parentKey, parentAttrs);
+    /** One JSON document per line, flushed every batchSize documents. */
+    private DocumentSink jsonlSink(ObjectMapper om, File file) throws IOException {
+      var writer = Files.newBufferedWriter(file.toPath(), java.nio.charset.StandardCharsets.UTF_8);
+      return new DocumentSink() {
+        int pending;
+
+        @Override
+        public void write(Map<String, Object> doc) throws IOException {
+          om.writeValue(writer, doc);
+          writer.write('\n');
+          if (++pending == batchSize) {
+            writer.flush();
+            pending = 0;
+          }
+        }
 
-        EdgeAttributes parentEdgeAttrs = new EdgeAttributes(1.0, nodeColor("moduleAgregator"), "moduleAgregator",
-            new EdgeMeta("moduleAgregator", null, null, "moduleAgregator", null, "pom"));
-        String edgeKey = projKey + "_moduleAgregator_" + parentKey;
-        addEdge(graph.edges, edgeKey, projKey, parentKey, parentEdgeAttrs);
+        @Override
+        public void close() throws IOException {
+          writer.close();
+        }
+      };
+    }
+
+    /** Documents grouped in {@code FOR doc IN [...] INSERT} statements of at most batchSize documents. */
+    private DocumentSink aqlSink(ObjectMapper om, java.io.Writer out, String collection) {
+      return new DocumentSink() {
+        int inBatch;
+
+        @Override
+        public void write(Map<String, Object> doc) throws IOException {
+          out.write(inBatch == 0 ? "FOR doc IN [\n" : ",\n");
+          om.writeValue(out, doc);
+          if (++inBatch == batchSize)
+            endBatch();
+        }
+
+        private void endBatch() throws IOException {
+          if (inBatch > 0)
+            out.write("\n] INSERT doc INTO %s OPTIONS { overwrite: true }\n\n".formatted(collection));
+          inBatch = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+          endBatch();
+          out.flush();
+        }
+      };
+    }
+
+    private void emitProjects(DependencyGraph graph, DocumentSink sink) throws IOException {
+      for (int node : graph.nodesSortedByGa()) {
+        if (graph.nodeKind(node) == DependencyGraph.NODE_PROJECT)
+          sink.write(document(graph, node, graph.packaging(node)));
       }
+    }
 
-      // ---- Parent Relation ----
-      if (project.parentPom != null) {
-        var parent = project.parentPom.effectivePomOrThis();
-        String parentKey = parent.ga();
-        NodeAttributes parentAttrs = new NodeAttributes(parent.groupId + ":" + parent.artifactId, nodeColor("parent"), 0, 0, 6.0,
-            new NodeMeta("parent", null, "pom", parent.groupId, parent.artifactId, parent.version));
-        addNode(graph.nodes, parentKey, parentAttrs);
+    /** Every dependency target once, typed by the first edge reaching it. */
+    private void emitDependencies(DependencyGraph graph, DocumentSink sink) throws IOException {
+      int[] inStart = graph.inStart();
+      int[] inEdges = graph.inEdges();
+      for (int node : graph.nodesSortedByGa()) {
+        for (int i = inStart[node]; i < inStart[node + 1]; i++) {
+          if (graph.edgeKind(inEdges[i]) == DependencyGraph.EDGE_DEPENDENCY) {
+            sink.write(document(graph, node, graph.edgeType(inEdges[i])));
+            break;
+          }
+        }
+      }
+    }
 
-        EdgeAttributes parentEdgeAttrs = new EdgeAttributes(1.0, nodeColor("parent"), "parent",
-            new EdgeMeta("parent", null, null, "parent", null, "pom"));
-        String edgeKey = projKey + "_parent_" + parentKey;
-        addEdge(graph.edges, edgeKey, projKey, parentKey, parentEdgeAttrs);
+    private void emitEdges(DependencyGraph graph, DocumentSink sink) throws IOException {
+      int[] outStart = graph.outStart();
+      int[] outEdges = graph.outEdges();
+      for (int node : graph.nodesSortedByGa()) {
+        for (int i = outStart[node]; i < outStart[node + 1]; i++) {
+          int e = outEdges[i];
+          if (graph.edgeKind(e) != DependencyGraph.EDGE_DEPENDENCY)
+            continue;
+          String from = arangoKey(graph, node);
+          String to = arangoKey(graph, graph.edgeTarget(e));
+          Map<String, Object> doc = new LinkedHashMap<>();
+          doc.put("_key", from + "-" + to);
+          doc.put("_from", "projects/" + from);
+          doc.put("_to", "dependencies/" + to);
+          doc.put("scope", graph.edgeScope(e) != null ? graph.edgeScope(e) : "compile");
+          sink.write(doc);
+        }
       }
-      // ---- Parent Relation ----
-      if (project.parentDirPom != null) {
-        var parent = project.parentDirPom.effectivePomOrThis();
-        String parentKey = parent.ga();
-        NodeAttributes parentAttrs = new NodeAttributes(parent.groupId + ":" + parent.artifactId, nodeColor("parentDir"), 0, 0, 6.0,
-            new NodeMeta("parentDir", null, "pom", parent.groupId, parent.artifactId, parent.version));
-        addNode(graph.nodes, parentKey, parentAttrs);
+    }
+
+    private static Map<String, Object> document(DependencyGraph graph, int node, String packaging) {
+      Map<String, Object> doc = new LinkedHashMap<>();
+      doc.put("_key", arangoKey(graph, node));
+      doc.put("groupId", graph.groupId(node));
+      doc.put("artifactId", graph.artifactId(node));
+      doc.put("version", graph.version(node) != null ? graph.version(node) : "unknown");
+      doc.put("packaging", packaging != null ? packaging : "jar");
+      return doc;
+    }
+
+    private static String arangoKey(DependencyGraph graph, int node) {
+      return (graph.groupId(node) + "_" + graph.artifactId(node)).replaceAll("[^a-zA-Z0-9_]", "_");
+    }
+
+  }
+
+  @CommandLine.Command(name = "analyze", mixinStandardHelpOptions = true, description = """
+      Analyze module dependencies of a Maven multi-module project.
+      Computes transitive module dependencies, cycles (strongly connected components), topological build layers,
+      the critical (longest) path and fan-in/fan-out hot spots. Useful to decide how to parallelize the build.
+      """)
+  public static class Analyze extends LoadPomOptions implements Callable<Integer> {
+    @Option(names = "--format", description = "Output format: ${COMPLETION-CANDIDATES}", defaultValue = "table", showDefaultValue = CommandLine.Help.Visibility.ALWAYS)
+    public AnalysisFormat format = AnalysisFormat.table;
 
-        EdgeAttributes parentEdgeAttrs = new EdgeAttributes(1.0, nodeColor("parentDir"), "parentDir",
-            new EdgeMeta("parentDir", null, null, "parentDir", null, "pom"));
-        String edgeKey = projKey + "_parentDir_" + parentKey;
-        addEdge(graph.edges, edgeKey, projKey, parentKey, parentEdgeAttrs);
+    @Option(names = "--with-parents", negatable = true, description = "Treat local parent poms as build dependencies (default: true)", defaultValue = "true", fallbackValue = "true")
+    public boolean withParents = true;
+
+    @Option(names = "--top", description = "Number of hot spots to show", defaultValue = "10", showDefaultValue = CommandLine.Help.Visibility.ALWAYS)
+    public int top = 10;
+
+    public enum AnalysisFormat {
+      table, json
+    }
+
+    @Override
+    public Integer call() throws Exception {
+      Project rootPom = new PomLoaderSession(this).loadRootPom();
+      DependencyGraph graph = DependencyGraph.of(rootPom);
+      long start = System.nanoTime();
+      ModuleGraphAnalysis.Report report = ModuleGraphAnalysis.analyze(graph, withParents);
+      log.info("Analyzed {} modules and {} module edges in {} ms", report.modules.size(), report.edges, (System.nanoTime() - start) / 1_000_000);
+      if (format == AnalysisFormat.json) {
+        System.out.println(new ObjectMapper().writerWithDefaultPrettyPrinter().writeValueAsString(report));
+      } else {
+        System.out.print(report.toTable(top));
       }
+      return 0;
     }
+  }
+
+  @CommandLine.Command(name = "batch", mixinStandardHelpOptions = true, description = """
+      Convert many Maven projects to Gradle in a single JVM (same as 2gradle on each root).
+      Each root is loaded in its own session. Parent poms from the local maven repository are parsed once for all roots.
+      Arguments after -- are 2gradle options applied to every root, e.g. xmvn batch --roots=roots.txt -- --inline-versions
+      """)
+  public static class Batch extends CommonOptions implements Callable<Integer> {
+    @Option(names = "--roots", required = true, description = "File with one project directory per line. Blank lines and # comments are ignored, relative paths are resolved against the file folder.")
+    public File roots;
+
+    @Option(names = "--parallelism", description = "Roots converted at the same time (default: ${DEFAULT-VALUE})", defaultValue = "4")
+    public int parallelism = 4;
 
-    private static Node addNode(SortedMap<String, Node> nodes, String key, NodeAttributes attributes) {
-      Node existing = nodes.get(key);
-      if (existing == null) {
-        Node n = new Node(key, attributes);
-        nodes.put(key, n);
-        return n;
+    @CommandLine.Parameters(description = "2gradle options for every root")
+    public List<String> gradleArgs = new ArrayList<>();
+
+    public static class RootResult {
+      public String root;
+      public int modules;
+      public long millis;
+      public String error;
+    }
+
+    @Override
+    public Integer call() throws Exception {
+      List<File> projectDirs = Files.readAllLines(roots.toPath()).stream().map(String::trim).filter(l -> !l.isEmpty() && !l.startsWith("#"))
+          .map(l -> roots.getAbsoluteFile().getParentFile().toPath().resolve(l).normalize().toFile()).toList();
+      RepositoryPomCache repositoryPoms = new RepositoryPomCache();
+      long start = System.nanoTime();
+      var executor = java.util.concurrent.Executors.newFixedThreadPool(Math.max(1, parallelism));
+      List<RootResult> results;
+      try {
+        List<java.util.concurrent.Future<RootResult>> futures = new ArrayList<>();
+        for (File projectDir : projectDirs) {
+          futures.add(executor.submit(() -> convert(projectDir, repositoryPoms)));
+        }
+        results = new ArrayList<>();
+        for (var future : futures) {
+          results.add(future.get());
+        }
+      } finally {
+        executor.shutdown();
       }
+      long failed = results.stream().filter(r -> r.error != null).count();
+      int width = results.stream().mapToInt(r -> r.root.length()).max().orElse(4);
+      String row = "%-" + width + "s %7s %9s  %s%n";
+      System.out.printf(row, "root", "modules", "seconds", "error");
+      results.forEach(r -> System.out.printf(row, r.root, r.modules, "%.1f".formatted(r.millis / 1000.0), r.error != null ? r.error : ""));
+      System.out.printf("%d roots, %d failed in %.1f s. %d repository poms parsed once, reused %d times.%n", results.size(), failed,
+          (System.nanoTime() - start) / 1e9, repositoryPoms.size(), repositoryPoms.hits());
+      return failed == 0 ? 0 : 1;
+    }
+
+    private RootResult convert(File projectDir, RepositoryPomCache repositoryPoms) {
+      RootResult result = new RootResult();
+      result.root = projectDir.getPath();
+      long start = System.nanoTime();
+      try {
+        ToGradle cli = new ToGradle();
+        List<String> args = new ArrayList<>(gradleArgs);
+        args.add(projectDir.getPath());
+        new CommandLine(cli).parseArgs(args.toArray(String[]::new));
+        Project rootPom = GradleKtsGenerator.sync(new PomLoaderSession(cli, repositoryPoms));
+        result.modules = (int) StreamEx.ofTree(rootPom, p -> StreamEx.of(p.children())).count();
+      } catch (Exception e) {
+        log.warn("Failed to convert {}", projectDir, e);
+        result.error = e.getMessage();
+      }
+      result.millis = (System.nanoTime() - start) / 1_000_000;
+      return result;
+    }
+  }
+
+  @CommandLine.Command(name = "classpath", mixinStandardHelpOptions = true, description = """
+      Resolve the transitive classpath of every module from the local maven repository (no network).
+      Applies nearest-wins mediation, scopes, exclusions, optional dependencies and dependencyManagement.
+      Missing poms and jars are reported.
+      """)
+  public static class ResolveClasspath extends LoadPomOptions implements Callable<Integer> {
+    @Option(names = "--scope", description = "Classpath: compile, runtime or test (default: ${DEFAULT-VALUE})", defaultValue = "compile")
+    public String scope = "compile";
+
+    @Option(names = "--format", description = "Output format: ${COMPLETION-CANDIDATES} (default: ${DEFAULT-VALUE})", defaultValue = "path")
+    public ClasspathFormat format = ClasspathFormat.path;
 
-      // Priority: project > others
-      if (!"project".equals(existing.attributes.meta.nodeType) && "project".equals(attributes.meta.nodeType)) {
-        Node n = new Node(key, attributes);
-        nodes.put(key, n);
-        return n;
+    @Option(names = "--module", description = "Only this module (groupId:artifactId)")
+    public String module;
+
+    public enum ClasspathFormat {
+      path, table, json
+    }
+
+    @Override
+    public Integer call() throws Exception {
+      PomLoaderSession session = new PomLoaderSession(this);
+      Project rootPom = session.loadRootPom();
+      ClasspathResolver resolver = new ClasspathResolver(session, rootPom);
+      long start = System.nanoTime();
+      List<ClasspathResolver.Resolution> resolutions = resolver.modules().parallelStream()
+          .filter(p -> !"pom".equals(p.packaging) && (module == null || module.equals(p.ga())))
+          .map(resolver::resolve)
+          .sorted(java.util.Comparator.comparing(r -> r.module))
+          .toList();
+      log.info("Resolved {} modules in {} ms", resolutions.size(), (System.nanoTime() - start) / 1_000_000);
+      switch (format) {
+      case json -> System.out.println(new ObjectMapper().writerWithDefaultPrettyPrinter().writeValueAsString(resolutions));
+      case table -> resolutions.forEach(r -> {
+        System.out.println(r.module);
+        r.artifacts.forEach(a -> System.out.printf("  %-60s %-10s %-8s %d %s%s%n", a.ga(), a.version, a.scope, a.depth, a.via,
+            a.missing ? " MISSING" : ""));
+      });
+      case path -> resolutions.forEach(r -> System.out.printf("# %s%n%s%n", r.module, String.join(File.pathSeparator, r.classpath(scope))));
       }
+      Set<String> problems = new TreeSet<>();
+      resolutions.forEach(r -> problems.addAll(r.problems));
+      problems.forEach(p -> log.warn("{}", p));
+      if (!problems.isEmpty())
+        log.warn("{} problems: missing or unresolvable artifacts in the local repository", problems.size());
+      return 0;
+    }
+  }
 
-      return existing;
+  /**
+   * Resolves module classpaths from the local maven repository only, the way maven does: breadth first with nearest
+   * wins, scope propagation, exclusions and optional dependencies, versions forced by the module dependencyManagement.
+   * Reactor modules are taken from the loaded model. Artifact descriptors (a pom merged with its parents and imported
+   * boms) are memoized by gav and shared by all modules. Missing poms and jars are reported, nothing is downloaded.
+   */
+  public static class ClasspathResolver {
+    private static final java.util.regex.Pattern PROPERTY = java.util.regex.Pattern.compile("\\$\\{([^}]+)\\}");
+    private final PomLoaderSession session;
+    private final Path localRepository;
+    private final Map<String, Project> reactor = new HashMap<>();
+    private final Map<String, Descriptor> descriptors = new java.util.concurrent.ConcurrentHashMap<>();
+
+    public static class ResolvedArtifact {
+      public String groupId;
+      public String artifactId;
+      public String version;
+      public String type;
+      public String classifier;
+      public String scope;
+      public int depth;
+      public String file;
+      public boolean missing;
+      public String via;
+
+      public String ga() {
+        return groupId + ":" + artifactId;
+      }
     }
 
-    private static Edge addEdge(SortedMap<String, Edge> edges, String key, String source, String target, EdgeAttributes attributes) {
-      Edge existing = edges.get(key);
-      if (existing == null) {
-        Edge e = new Edge(key, source, target, attributes);
-        edges.put(key, e);
-        return e;
+    public static class Resolution {
+      public String module;
+      public List<ResolvedArtifact> artifacts = new ArrayList<>();
+      public List<String> problems = new ArrayList<>();
+
+      /** Files on the compile (compile, provided, system), runtime (compile, runtime) or test (all) classpath. */
+      public List<String> classpath(String scope) {
+        Set<String> scopes = switch (scope) {
+        case "compile" -> Set.of("compile", "provided", "system");
+        case "runtime" -> Set.of("compile", "runtime");
+        case "test" -> Set.of("compile", "provided", "system", "runtime", "test");
+        default -> throw new IllegalArgumentException("Unknown classpath scope " + scope);
+        };
+        return artifacts.stream().filter(a -> a.file != null && scopes.contains(a.scope)).map(a -> a.file).toList();
       }
-      return existing;
     }
 
-    private String nodeColor(String scope) {
-      //log.info("Color for scope/type {}", scope);
-      return switch (scope) {
-      case "project" -> "#1f77b4";   // blue
-      case "compile" -> "red";         // red
-      case "provided" -> "#17becf";  // cyan
-      case "runtime" -> "#2ca02c";   // green
-      case "test" -> "#ff7f0e";      // orange
-      case "system" -> "#9467bd";    // purple
-      case "import" -> "#8c564b";    // brown
-      case "bom" -> "#e377c2";       // pink
-      case "parentDir" -> "#e3A7c2"; // light pink 
-      default -> "#7f7f7f";          // grey
+    /** Dependencies and dependencyManagement of an artifact after inheritance, bom imports and interpolation. */
+    static class Descriptor {
+      final List<Dependency> dependencies = new ArrayList<>();
+      final Map<String, Dependency> management = new LinkedHashMap<>();
+      final Map<String, String> properties = new HashMap<>();
+      /** As declared along the parent chain: interpolated only with the merged properties, so children can override them. */
+      final List<Dependency> declaredDependencies = new ArrayList<>();
+      final List<Dependency> declaredManagement = new ArrayList<>();
+      String problem;
+    }
+
+    public ClasspathResolver(PomLoaderSession session, Project rootPom) {
+      this.session = session;
+      this.localRepository = session.localRepository();
+      StreamEx.ofTree(rootPom, p -> StreamEx.of(p.children())).forEach(p -> reactor.put(p.ga(), p.effectivePomOrThis()));
+    }
+
+    public Collection<Project> modules() {
+      return reactor.values();
+    }
+
+    public Resolution resolve(Project module) {
+      Project pom = module.effectivePomOrThis();
+      Resolution resolution = new Resolution();
+      resolution.module = pom.ga();
+      Map<String, Dependency> management = new HashMap<>();
+      if (pom.dependencyManagement != null && pom.dependencyManagement.dependencies != null
+          && pom.dependencyManagement.dependencies.dependency != null)
+        pom.dependencyManagement.dependencies.dependency.forEach(d -> management.putIfAbsent(d.ga(), d));
+
+      record Node(Dependency dependency, String version, String scope, List<Exclusion> exclusions, int depth, String via) {
+      }
+      java.util.ArrayDeque<Node> queue = new java.util.ArrayDeque<>();
+      if (pom.dependencies != null && pom.dependencies.dependency != null)
+        for (Dependency d : pom.dependencies.dependency)
+          queue.add(new Node(d, d.version, d.scope != null ? d.scope : "compile", exclusions(List.of(), d), 1, pom.ga()));
+      Set<String> seen = new HashSet<>();
+      while (!queue.isEmpty()) {
+        Node node = queue.poll();
+        Dependency d = node.dependency;
+        String type = d.type != null ? d.type : "jar";
+        String classifier = d.classifier != null ? d.classifier : "test-jar".equals(type) ? "tests" : null;
+        // nearest wins: breadth first, so the first occurrence of a key is the nearest one, declaration order breaks ties
+        if (!seen.add(d.ga() + ":" + type + ":" + classifier))
+          continue;
+        String version = node.version;
+        String scope = node.scope;
+        Dependency managed = node.depth > 1 ? management.get(d.ga()) : null;
+        if (managed != null) {
+          version = managed.version != null ? managed.version : version;
+          scope = managed.scope != null && !"import".equals(managed.scope) ? managed.scope : scope;
+        }
+        ResolvedArtifact artifact = new ResolvedArtifact();
+        artifact.groupId = d.groupId;
+        artifact.artifactId = d.artifactId;
+        artifact.version = version;
+        artifact.type = type;
+        artifact.classifier = classifier;
+        artifact.scope = scope;
+        artifact.depth = node.depth;
+        artifact.via = node.via;
+        resolution.artifacts.add(artifact);
+        if (version == null || version.startsWith("[") || version.startsWith("(")) {
+          artifact.missing = true;
+          resolution.problems.add("%s: %s version %s cannot be resolved offline".formatted(node.via, d.ga(), version));
+          continue;
+        }
+        Project module2 = reactor.get(d.ga());
+        if (module2 != null) {
+          artifact.file = new File(module2.pomFile.getParentFile(), "target/" + ("tests".equals(classifier) ? "test-classes" : "classes")).getPath();
+        } else if ("system".equals(scope)) {
+          artifact.file = d.systemPath;
+        } else if (!"pom".equals(type)) {
+          String extension = switch (type) {
+          case "test-jar", "bundle", "maven-plugin", "ejb" -> "jar";
+          default -> type;
+          };
+          Path file = artifactFolder(d.groupId, d.artifactId, version)
+              .resolve("%s-%s%s.%s".formatted(d.artifactId, version, classifier != null ? "-" + classifier : "", extension));
+          artifact.file = file.toString();
+          if (!Files.exists(file)) {
+            artifact.missing = true;
+            resolution.problems.add("%s: missing %s".formatted(node.via, file));
+          }
+        }
+        if ("system".equals(scope))
+          continue;
+        Descriptor descriptor = descriptor(d.groupId, d.artifactId, version);
+        if (descriptor.problem != null) {
+          resolution.problems.add("%s: %s".formatted(d.ga(), descriptor.problem));
+          continue;
+        }
+        for (Dependency child : descriptor.dependencies) {
+          if (Boolean.TRUE.equals(child.optional) || excluded(node.exclusions, child))
+            continue;
+          String childScope = propagate(scope, child.scope != null ? child.scope : "compile");
+          if (childScope == null)
+            continue;
+          Dependency childManaged = descriptor.management.get(child.ga());
+          String childVersion = child.version != null ? child.version : childManaged != null ? childManaged.version : null;
+          queue.add(new Node(child, childVersion, childScope, exclusions(node.exclusions, child), node.depth + 1, d.ga()));
+        }
+      }
+      return resolution;
+    }
+
+    /** Maven's scope table: the scope of a transitive dependency or null if it is not inherited. */
+    static String propagate(String parentScope, String scope) {
+      if (!scope.equals("compile") && !scope.equals("runtime"))
+        return null;
+      return switch (parentScope) {
+      case "compile" -> scope;
+      case "provided", "test" -> parentScope;
+      case "runtime" -> "runtime";
+      default -> null;
       };
     }
-  }
 
-  @CommandLine.Command(name = "2arango", mixinStandardHelpOptions = true, description = """
-      Generate ArangoDB graph from Maven multi-module project.
-      """)
-  public static class ToArangoGraph extends LoadPomOptions implements Callable<Integer> {
-    @Override
-    public Integer call() throws Exception {
-      Project rootPom = xmvn.PomLoader.loadRootPom(this);
-      generateArangoGraph(rootPom);
-      return 0;
+    private static List<Exclusion> exclusions(List<Exclusion> inherited, Dependency d) {
+      if (d.exclusions == null || d.exclusions.exclusion == null || d.exclusions.exclusion.isEmpty())
+        return inherited;
+      List<Exclusion> all = new ArrayList<>(inherited);
+      all.addAll(d.exclusions.exclusion);
+      return all;
+    }
+
+    private static boolean excluded(List<Exclusion> exclusions, Dependency d) {
+      for (Exclusion e : exclusions) {
+        if (("*".equals(e.groupId) || Objects.equals(e.groupId, d.groupId)) && ("*".equals(e.artifactId) || Objects.equals(e.artifactId, d.artifactId)))
+          return true;
+      }
+      return false;
+    }
+
+    private Path artifactFolder(String groupId, String artifactId, String version) {
+      return localRepository.resolve(groupId.replace('.', '/')).resolve(artifactId).resolve(version);
+    }
+
+    Descriptor descriptor(String groupId, String artifactId, String version) {
+      return descriptor(groupId, artifactId, version, new LinkedHashSet<>());
+    }
+
+    /** {@code loading}: the parent/bom chain being loaded, a gav seen twice is a cycle (broken ~/.m2 contents). */
+    private Descriptor descriptor(String groupId, String artifactId, String version, LinkedHashSet<String> loading) {
+      String gav = groupId + ":" + artifactId + ":" + version;
+      Descriptor descriptor = descriptors.get(gav);
+      if (descriptor != null)
+        return descriptor;
+      if (loading.contains(gav) || loading.size() > 50) {
+        Descriptor broken = new Descriptor();
+        broken.problem = (loading.contains(gav) ? "parent/bom cycle " : "parent/bom chain too deep ") + String.join(" -> ", loading)
+            + " -> " + gav;
+        return broken;
+      }
+      // not computeIfAbsent: loading recurses into parents and boms
+      loading.add(gav);
+      try {
+        descriptor = loadDescriptor(groupId, artifactId, version, loading);
+      } finally {
+        loading.remove(gav);
+      }
+      Descriptor existing = descriptors.putIfAbsent(gav, descriptor);
+      return existing != null ? existing : descriptor;
+    }
+
+    private Descriptor loadDescriptor(String groupId, String artifactId, String version, LinkedHashSet<String> loading) {
+      Descriptor descriptor = new Descriptor();
+      Project module = reactor.get(groupId + ":" + artifactId);
+      if (module != null) {
+        // effective pom: already inherited and interpolated by maven
+        if (module.dependencies != null && module.dependencies.dependency != null)
+          descriptor.dependencies.addAll(module.dependencies.dependency);
+        return descriptor;
+      }
+      File pomFile = artifactFolder(groupId, artifactId, version).resolve("%s-%s.pom".formatted(artifactId, version)).toFile();
+      if (!pomFile.exists()) {
+        descriptor.problem = "missing pom " + pomFile;
+        return descriptor;
+      }
+      Project pom;
+      try {
+        pom = session.parsePom(pomFile);
+      } catch (RuntimeException e) {
+        descriptor.problem = "unreadable pom " + pomFile + " (try --ignore-unknown): " + e.getMessage();
+        return descriptor;
+      }
+      if (pom.parentGav != null) {
+        Descriptor parent = descriptor(pom.parentGav.groupId, pom.parentGav.artifactId, pom.parentGav.version, loading);
+        if (parent.problem != null) {
+          descriptor.problem = "parent of %s:%s:%s: %s".formatted(groupId, artifactId, version, parent.problem);
+          return descriptor;
+        }
+        descriptor.properties.putAll(parent.properties);
+        descriptor.declaredManagement.addAll(parent.declaredManagement);
+        descriptor.declaredDependencies.addAll(parent.declaredDependencies);
+        descriptor.properties.put("project.parent.groupId", pom.parentGav.groupId);
+        descriptor.properties.put("project.parent.version", pom.parentGav.version);
+      }
+      if (pom.properties != null)
+        descriptor.properties.putAll(pom.properties.any);
+      descriptor.properties.put("project.groupId", groupId);
+      descriptor.properties.put("project.artifactId", artifactId);
+      descriptor.properties.put("project.version", version);
+      descriptor.properties.put("pom.groupId", groupId);
+      descriptor.properties.put("pom.version", version);
+      descriptor.properties.put("version", version);
+      if (pom.dependencyManagement != null && pom.dependencyManagement.dependencies != null
+          && pom.dependencyManagement.dependencies.dependency != null)
+        descriptor.declaredManagement.addAll(pom.dependencyManagement.dependencies.dependency);
+      if (pom.dependencies != null && pom.dependencies.dependency != null)
+        descriptor.declaredDependencies.addAll(pom.dependencies.dependency);
+
+      // like maven: inherit first, then interpolate everything with the properties of this pom
+      List<Dependency> imports = new ArrayList<>();
+      for (Dependency d : descriptor.declaredManagement) {
+        Dependency managed = interpolate(d, descriptor.properties);
+        if ("import".equals(managed.scope) && "pom".equals(managed.type))
+          imports.add(managed);
+        else
+          descriptor.management.put(managed.ga(), managed);
+      }
+      for (Dependency managed : imports) {
+        Descriptor bom = descriptor(managed.groupId, managed.artifactId, managed.version, loading);
+        if (bom.problem != null) {
+          descriptor.problem = "bom %s:%s:%s: %s".formatted(managed.groupId, managed.artifactId, managed.version, bom.problem);
+          return descriptor;
+        }
+        // boms never override what is declared explicitly, the first import wins
+        bom.management.forEach(descriptor.management::putIfAbsent);
+      }
+      for (Dependency d : descriptor.declaredDependencies) {
+        Dependency dependency = interpolate(d, descriptor.properties);
+        descriptor.dependencies.removeIf(inherited -> inherited.ga().equals(dependency.ga()));
+        descriptor.dependencies.add(dependency);
+      }
+      return descriptor;
+    }
+
+    private static Dependency interpolate(Dependency d, Map<String, String> properties) {
+      Dependency copy = new Dependency();
+      copy.groupId = interpolate(d.groupId, properties);
+      copy.artifactId = interpolate(d.artifactId, properties);
+      copy.version = interpolate(d.version, properties);
+      copy.scope = interpolate(d.scope, properties);
+      copy.type = interpolate(d.type, properties);
+      copy.classifier = interpolate(d.classifier, properties);
+      copy.optional = d.optional;
+      copy.exclusions = d.exclusions;
+      copy.systemPath = interpolate(d.systemPath, properties);
+      return copy;
+    }
+
+    private static String interpolate(String value, Map<String, String> properties) {
+      // a few rounds for properties defined with other properties
+      for (int round = 0; value != null && value.contains("${") && round < 10; round++) {
+        value = PROPERTY.matcher(value).replaceAll(m -> java.util.regex.Matcher.quoteReplacement(properties.getOrDefault(m.group(1), m.group())));
+      }
+      return value;
+    }
+  }
+
+  /**
+   * Analyses over the module subgraph of a {@link DependencyGraph}: project nodes linked by dependency
+   * (and optionally parent) edges, where an edge u->v means v must be built before u.
+   *
+   * All algorithms are linear in nodes+edges except the transitive closure, which uses one bitset per
+   * strongly connected component.
+   */
+  public static class ModuleGraphAnalysis {
+    public static class Report {
+      public int edges;
+      public List<ModuleStats> modules = new ArrayList<>();
+      public List<List<String>> layers = new ArrayList<>();
+      public List<List<String>> cycles = new ArrayList<>();
+      public List<String> criticalPath = new ArrayList<>();
+
+      public String toTable(int top) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Modules: %d, module edges: %d, cycles: %d, layers: %d, critical path: %d modules%n".formatted(modules.size(), edges,
+            cycles.size(), layers.size(), criticalPath.size()));
+        sb.append("%nBuild layers (modules in the same layer can be built in parallel):%n".formatted());
+        for (int i = 0; i < layers.size(); i++) {
+          sb.append("  %3d [%d] %s%n".formatted(i, layers.get(i).size(), String.join(", ", layers.get(i))));
+        }
+        sb.append("%nCritical path:%n  %s%n".formatted(String.join(" -> ", criticalPath)));
+        if (!cycles.isEmpty()) {
+          sb.append("%nCycles:%n".formatted());
+          cycles.forEach(c -> sb.append("  %s%n".formatted(String.join(" <-> ", c))));
+        }
+        int width = modules.stream().mapToInt(m -> m.ga.length()).max().orElse(6);
+        String row = "  %-" + width + "s %6s %7s %9s %11s %5s%n";
+        sb.append("%nHot spots (top %d by transitive dependents):%n".formatted(top));
+        sb.append(row.formatted("module", "fanIn", "fanOut", "transDeps", "transDepnts", "layer"));
+        modules.stream()
+            .sorted(java.util.Comparator.comparingInt((ModuleStats m) -> -m.transitiveDependents).thenComparingInt(m -> -m.fanIn)
+                .thenComparing(m -> m.ga))
+            .limit(top)
+            .forEach(m -> sb.append(row.formatted(m.ga, m.fanIn, m.fanOut, m.transitiveDependencies.size(), m.transitiveDependents, m.layer)));
+        return sb.toString();
+      }
+    }
+
+    public static class ModuleStats {
+      public String ga;
+      public int layer;
+      public int scc;
+      public int fanIn;
+      public int fanOut;
+      public int transitiveDependents;
+      public List<String> dependencies = new ArrayList<>();
+      public List<String> transitiveDependencies = new ArrayList<>();
+    }
+
+    public static Report analyze(DependencyGraph graph, boolean withParents) {
+      // 1. module subgraph in local ids
+      int[] local = new int[graph.nodeCount()];
+      Arrays.fill(local, -1);
+      int[] modules = Arrays.stream(graph.nodesSortedByGa()).filter(n -> graph.nodeKind(n) == DependencyGraph.NODE_PROJECT).toArray();
+      for (int i = 0; i < modules.length; i++)
+        local[modules[i]] = i;
+      int n = modules.length;
+      int[] start = new int[n + 1];
+      int[] targets = new int[graph.edgeCount()];
+      int[] seen = new int[n];
+      Arrays.fill(seen, -1);
+      int[] outStart = graph.outStart();
+      int[] outEdges = graph.outEdges();
+      int m = 0;
+      for (int u = 0; u < n; u++) {
+        start[u] = m;
+        int node = modules[u];
+        for (int i = outStart[node]; i < outStart[node + 1]; i++) {
+          int e = outEdges[i];
+          byte kind = graph.edgeKind(e);
+          if (kind != DependencyGraph.EDGE_DEPENDENCY && !(withParents && kind == DependencyGraph.EDGE_PARENT))
+            continue;
+          int v = local[graph.edgeTarget(e)];
+          if (v < 0 || v == u || seen[v] == u)
+            continue;
+          seen[v] = u;
+          targets[m++] = v;
+        }
+      }
+      start[n] = m;
+
+      // 2. strongly connected components. Tarjan numbers components dependencies-first.
+      int[] comp = stronglyConnectedComponents(n, start, targets);
+      int compCount = Arrays.stream(comp).max().orElse(-1) + 1;
+      int[] compSize = new int[compCount];
+      for (int u = 0; u < n; u++)
+        compSize[comp[u]]++;
+      int[][] members = new int[compCount][];
+      for (int c = 0; c < compCount; c++)
+        members[c] = new int[compSize[c]];
+      int[] fill = new int[compCount];
+      for (int u = 0; u < n; u++)
+        members[comp[u]][fill[comp[u]]++] = u;
+
+      // 3. layers, critical path and transitive closure over the condensation, in component order
+      int[] layer = new int[compCount];
+      int[] longest = new int[compCount];
+      int[] next = new int[compCount];
+      java.util.BitSet[] reach = new java.util.BitSet[compCount];
+      for (int c = 0; c < compCount; c++) {
+        reach[c] = new java.util.BitSet(compCount);
+        next[c] = -1;
+        for (int u : members[c]) {
+          for (int i = start[u]; i < start[u + 1]; i++) {
+            int d = comp[targets[i]];
+            if (d == c || reach[c].get(d))
+              continue;
+            reach[c].set(d);
+            reach[c].or(reach[d]);
+            layer[c] = Math.max(layer[c], layer[d] + 1);
+            if (next[c] < 0 || longest[d] > longest[next[c]])
+              next[c] = d;
+          }
+        }
+        longest[c] = compSize[c] + (next[c] < 0 ? 0 : longest[next[c]]);
+      }
+      int[] transitiveDependents = new int[compCount];
+      for (int c = 0; c < compCount; c++)
+        for (int d = reach[c].nextSetBit(0); d >= 0; d = reach[c].nextSetBit(d + 1))
+          transitiveDependents[d] += compSize[c];
+
+      // 4. report
+      Report report = new Report();
+      report.edges = m;
+      int layerCount = Arrays.stream(layer).max().orElse(-1) + 1;
+      for (int i = 0; i < layerCount; i++)
+        report.layers.add(new ArrayList<>());
+      for (int u = 0; u < n; u++) {
+        int c = comp[u];
+        ModuleStats stats = new ModuleStats();
+        stats.ga = graph.ga(modules[u]);
+        stats.layer = layer[c];
+        stats.scc = c;
+        stats.fanOut = start[u + 1] - start[u];
+        stats.transitiveDependents = transitiveDependents[c] + compSize[c] - 1;
+        for (int i = start[u]; i < start[u + 1]; i++)
+          stats.dependencies.add(graph.ga(modules[targets[i]]));
+        for (int v : members[c])
+          if (v != u)
+            stats.transitiveDependencies.add(graph.ga(modules[v]));
+        for (int d = reach[c].nextSetBit(0); d >= 0; d = reach[c].nextSetBit(d + 1))
+          for (int v : members[d])
+            stats.transitiveDependencies.add(graph.ga(modules[v]));
+        java.util.Collections.sort(stats.transitiveDependencies);
+        report.modules.add(stats);
+        report.layers.get(layer[c]).add(stats.ga);
+      }
+      for (int i = 0; i < m; i++)
+        report.modules.get(targets[i]).fanIn++;
+      for (int c = 0; c < compCount; c++) {
+        if (compSize[c] > 1)
+          report.cycles.add(Arrays.stream(members[c]).mapToObj(u -> graph.ga(modules[u])).toList());
+      }
+      int best = -1;
+      for (int c = 0; c < compCount; c++)
+        if (best < 0 || longest[c] > longest[best])
+          best = c;
+      for (int c = best; c >= 0; c = next[c])
+        for (int u : members[c])
+          report.criticalPath.add(graph.ga(modules[u]));
+      // reported from the last module to build down to the first
+      java.util.Collections.reverse(report.criticalPath);
+      return report;
+    }
+
+    /**
+     * Iterative Tarjan. Returns the component of each node; components are numbered so that every edge goes
+     * from a component to one with a smaller or equal number.
+     */
+    static int[] stronglyConnectedComponents(int n, int[] start, int[] targets) {
+      int[] index = new int[n];
+      int[] low = new int[n];
+      int[] comp = new int[n];
+      Arrays.fill(index, -1);
+      boolean[] onStack = new boolean[n];
+      int[] stack = new int[n];
+      int[] callStack = new int[n];
+      int[] edgePos = new int[n];
+      int sp = 0;
+      int counter = 0;
+      int compCount = 0;
+      for (int root = 0; root < n; root++) {
+        if (index[root] >= 0)
+          continue;
+        int csp = 0;
+        callStack[csp++] = root;
+        index[root] = low[root] = counter++;
+        edgePos[root] = start[root];
+        stack[sp++] = root;
+        onStack[root] = true;
+        while (csp > 0) {
+          int u = callStack[csp - 1];
+          if (edgePos[u] < start[u + 1]) {
+            int v = targets[edgePos[u]++];
+            if (index[v] < 0) {
+              index[v] = low[v] = counter++;
+              edgePos[v] = start[v];
+              stack[sp++] = v;
+              onStack[v] = true;
+              callStack[csp++] = v;
+            } else if (onStack[v]) {
+              low[u] = Math.min(low[u], index[v]);
+            }
+            continue;
+          }
+          csp--;
+          if (csp > 0) {
+            int parent = callStack[csp - 1];
+            low[parent] = Math.min(low[parent], low[u]);
+          }
+          if (low[u] == index[u]) {
+            int v;
+            do {
+              v = stack[--sp];
+              onStack[v] = false;
+              comp[v] = compCount;
+            } while (v != u);
+            compCount++;
+          }
+        }
+      }
+      return comp;
+    }
+  }
+
+  @CommandLine.Command(name = "2gradle", mixinStandardHelpOptions = true, description = "Convert a maven multi-module base to equivalent gradle build.", footer = """
+      Convert a maven multi-module base to equivalent gradle build.
+
+      ## Features
+
+      ## History
+
+      - 2025-02-08
+        - new: lombok compatibility
+        - new: inheritance of dependencies from parent
+        - new: inheritance of plugin configs from parent
+        - new: use testJars dependencies directly at compile - no jar build necessary
+        - new: use submodules dependencies independent of location (as long as they are locally)
+        - new: annotation processor are handled as well: immutable, mapstruct, etc.
+        - new: antlr4 support
+        - new: compile excludes support
+        - new: proper config of mavenLocal
+        - new: compiler can be configured with `-P-GCompiler-Xlint:unchecked -P-GCompiler-nowarn`
+      - 2025-08-17
+        - new: add jaxb jxc plugin configs
+
+      ## TODO
+
+      """)
+  public static class ToGradle extends LoadPomOptions implements Callable<Integer> {
+    @Option(names = "--inline-versions", description = "Inline dependency versions instead of using val variables")
+    public boolean inlineVersions = false;
+
+    @Option(names = "--maven-compatible", description = "Generate settings.gradle.kts compatible with Maven:\n - generate inside target/gradle")
+    public boolean mavenCompatible = true;
+
+    @Option(names = "--ignore-unknown-versions", description = "Ignore unknown dependencies versions (useful in debug)", defaultValue = "false", showDefaultValue = CommandLine.Help.Visibility.ON_DEMAND)
+    public boolean ignoreUnknownVersions = false;
+
+    @Option(names = "--ignore-unknown-java-version", description = "Ignore unknown Java version in pom.xml (useful in debug)", defaultValue = "true", showDefaultValue = CommandLine.Help.Visibility.ON_DEMAND)
+    public boolean ignoreUnknownJavaVersion = true;
+
+    @Option(names = "--use-implementation-dependencies", description = "Use implementation dependencies instead of api. Use this if you want to compile only against explicit dependencies.", defaultValue = "false", showDefaultValue = CommandLine.Help.Visibility.ON_DEMAND)
+    public Boolean useImplementationDependencies = null;
+
+    @Option(names = "--use-api-dependencies", description = "Use api dependencies instead of implementation. Dependencies appearing in the api configurations will be transitively exposed to consumers of the library, and as such will appear on the compile classpath of consumers. This is the default since maven offers only this.", defaultValue = "true", showDefaultValue = CommandLine.Help.Visibility.ALWAYS)
+    public Boolean useApiDependencies = null;
+
+    @Option(names = "--force-provided-for-tests", description = "Force compileOnly+testImplementation for the maven scope=provided libraries [:group:artifact1:,:group2:artifact2:]", defaultValue = ":org.apache.maven:maven-compat:", showDefaultValue = CommandLine.Help.Visibility.ALWAYS)
+    public String forceProvidedForTests = ":org.apache.maven:maven-compat:";
+
+    @Option(names = "--version-catalog", description = "Collect dependency versions of all modules in gradle/libs.versions.toml and reference them as libs.* instead of per module val variables")
+    public boolean versionCatalog = false;
+
+    @Option(names = "--convention-plugin", description = "Move the configuration shared by all modules to a precompiled buildSrc convention plugin (xmvn.java-conventions) applied by every module")
+    public boolean conventionPlugin = false;
+
+    @Option(names = "--profile", description = "Print phase timings, cache hit ratios and per module generation times, also written to target/xmvn-profile.json")
+    public boolean profile = false;
+
+    @Option(names = "--plugin-rules", split = ",", description = "Extra plugin conversion rules (yaml or json, same format as the bundled xmvn-plugins.yaml). They override bundled rules for the same plugin:goal.")
+    public List<File> pluginRules = new ArrayList<>();
+
+    GradleKtsGenerator.PluginConversionRegistry pluginRegistry;
+
+    @Override
+    public Integer call() throws Exception {
+      return GradleKtsGenerator.sync(this);
+    }
+
+    public boolean useApiDependencies() {
+      if (useApiDependencies == useImplementationDependencies) {
+        throw new IllegalArgumentException("Cannot use both --use-api-dependencies and --use-implementation-dependencies at the same time.");
+      }
+      return useApiDependencies && !useImplementationDependencies;
+    }
+  }
+
+  @CommandLine.Command(name = "verify-gradle", mixinStandardHelpOptions = true, description = """
+      Check that the generated Gradle build produces the same jars as Maven, and how much faster it is.
+      Generates the gradle files (as 2gradle), runs both builds, then compares every module jar entry by entry
+      (name, size and CRC from the zip central directory). Exits with 1 if any jar differs.
+      """)
+  public static class VerifyGradle extends ToGradle {
+    @Option(names = "--build", negatable = true, description = "Run the maven and gradle builds. Use --no-build to only compare existing jars (default: true)", defaultValue = "true", fallbackValue = "true")
+    public boolean build = true;
+
+    @Option(names = "--maven-goals", split = ",", description = "Maven goals (default: ${DEFAULT-VALUE})", defaultValue = "clean,package")
+    public List<String> mavenGoals;
+
+    @Option(names = "--gradle-tasks", split = ",", description = "Gradle tasks (default: ${DEFAULT-VALUE})", defaultValue = "clean,jar")
+    public List<String> gradleTasks;
+
+    @Option(names = "--skip-tests", negatable = true, description = "Skip tests in both builds (default: true)", defaultValue = "true", fallbackValue = "true")
+    public boolean skipTests = true;
+
+    @Option(names = "--ignore", split = ",", description = "Globs of jar entries that are expected to differ (default: ${DEFAULT-VALUE})", defaultValue = "META-INF/MANIFEST.MF,META-INF/maven/**")
+    public List<String> ignore;
+
+    @Option(names = "--threads", description = "Jars compared in parallel (default: available processors)")
+    public Integer threads;
+
+    public static class JarDiff {
+      public String module;
+      public String mavenJar;
+      public String gradleJar;
+      public int entries;
+      public List<String> onlyInMaven = new ArrayList<>();
+      public List<String> onlyInGradle = new ArrayList<>();
+      public List<String> different = new ArrayList<>();
+      public String error;
+
+      public boolean same() {
+        return error == null && onlyInMaven.isEmpty() && onlyInGradle.isEmpty() && different.isEmpty();
+      }
+    }
+
+    @Override
+    public Integer call() throws Exception {
+      Project rootPom = GradleKtsGenerator.sync(new PomLoaderSession(this));
+      File dir = rootPom.pomFile.getParentFile();
+      long mavenMillis = 0;
+      long gradleMillis = 0;
+      if (build) {
+        List<String> maven = new ArrayList<>(List.of(PomLoaderSession.isWindows() ? "mvn.cmd" : "mvn", "-B", "-q"));
+        maven.addAll(mavenGoals);
+        List<String> gradle = new ArrayList<>(List.of(gradleCommand(dir), "-q"));
+        gradle.addAll(gradleTasks);
+        if (skipTests) {
+          maven.add("-DskipTests");
+          gradle.addAll(List.of("-x", "test"));
+        }
+        mavenMillis = runBuild(dir, maven);
+        gradleMillis = runBuild(dir, gradle);
+      }
+
+      List<Project> modules = StreamEx.ofTree(rootPom, p -> StreamEx.of(p.children()))
+          .filter(p -> "jar".equals(p.effectivePomOrThis().packaging))
+          .toList();
+      List<java.nio.file.PathMatcher> ignored = ignore.stream().map(g -> FileSystems.getDefault().getPathMatcher("glob:" + g)).toList();
+      var pool = new java.util.concurrent.ForkJoinPool(threads != null ? threads : Runtime.getRuntime().availableProcessors());
+      List<JarDiff> diffs;
+      try {
+        diffs = pool.submit(() -> modules.parallelStream().map(m -> compare(m, ignored)).toList()).get();
+      } finally {
+        pool.shutdown();
+      }
+
+      int failed = 0;
+      for (JarDiff d : diffs) {
+        if (d.same()) {
+          System.out.printf("OK    %s %d entries%n", d.module, d.entries);
+          continue;
+        }
+        failed++;
+        System.out.printf("DIFF  %s %s%n", d.module, d.error != null ? d.error : "maven " + d.mavenJar + " vs gradle " + d.gradleJar);
+        d.onlyInMaven.forEach(e -> System.out.printf("  - %s (only in maven)%n", e));
+        d.onlyInGradle.forEach(e -> System.out.printf("  + %s (only in gradle)%n", e));
+        d.different.forEach(e -> System.out.printf("  ~ %s%n", e));
+      }
+      System.out.printf("%d jars compared, %d different.%n", diffs.size(), failed);
+      if (build) {
+        System.out.printf("maven %s: %.1f s, gradle %s: %.1f s, speedup x%.2f%n", String.join(" ", mavenGoals), mavenMillis / 1000.0,
+            String.join(" ", gradleTasks), gradleMillis / 1000.0, gradleMillis > 0 ? (double) mavenMillis / gradleMillis : 0);
+      }
+      return failed == 0 ? 0 : 1;
+    }
+
+    static String gradleCommand(File dir) {
+      String wrapper = PomLoaderSession.isWindows() ? "gradlew.bat" : "gradlew";
+      return new File(dir, wrapper).exists() ? new File(dir, wrapper).getAbsolutePath() : PomLoaderSession.isWindows() ? "gradle.bat" : "gradle";
+    }
+
+    private static long runBuild(File dir, List<String> command) {
+      log.info("Running {} in {}", String.join(" ", command), dir);
+      long start = System.nanoTime();
+      try {
+        new ProcessExecutor().directory(dir).command(command).redirectOutput(System.out).redirectError(System.err).exitValues(0).execute();
+      } catch (InvalidExitValueException e) {
+        throw new RuntimeException("Build failed with exit code " + e.getExitValue() + ": " + String.join(" ", command), e);
+      } catch (IOException | InterruptedException | TimeoutException e) {
+        throw new RuntimeException("Build failed: " + String.join(" ", command), e);
+      }
+      return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    private static JarDiff compare(Project module, List<java.nio.file.PathMatcher> ignored) {
+      JarDiff diff = new JarDiff();
+      Project pom = module.effectivePomOrThis();
+      diff.module = module.ga();
+      File moduleDir = module.pomFile.getParentFile();
+      String targetDir = pom.build != null && pom.build.directory != null ? pom.build.directory : new File(moduleDir, "target").getPath();
+      String finalName = pom.build != null && pom.build.finalName != null ? pom.build.finalName : pom.artifactId + "-" + pom.version;
+      File mavenJar = new File(targetDir, finalName + ".jar");
+      File gradleJar = mainJar(new File(moduleDir, "target/gradle/libs"));
+      diff.mavenJar = mavenJar.getPath();
+      diff.gradleJar = gradleJar != null ? gradleJar.getPath() : null;
+      if (!mavenJar.exists() || gradleJar == null) {
+        diff.error = !mavenJar.exists() ? "maven jar not found " + mavenJar : "gradle jar not found in " + new File(moduleDir, "target/gradle/libs");
+        return diff;
+      }
+      try {
+        Map<String, long[]> maven = JarCentralDirectory.read(mavenJar.toPath());
+        Map<String, long[]> gradle = JarCentralDirectory.read(gradleJar.toPath());
+        TreeSet<String> names = new TreeSet<>(maven.keySet());
+        names.addAll(gradle.keySet());
+        for (String name : names) {
+          if (ignored.stream().anyMatch(m -> m.matches(Paths.get(name))))
+            continue;
+          diff.entries++;
+          long[] m = maven.get(name);
+          long[] g = gradle.get(name);
+          if (g == null)
+            diff.onlyInMaven.add(name);
+          else if (m == null)
+            diff.onlyInGradle.add(name);
+          else if (m[0] != g[0] || m[1] != g[1])
+            diff.different.add("%s size %d/%d crc %08x/%08x".formatted(name, m[0], g[0], m[1], g[1]));
+        }
+      } catch (IOException | RuntimeException e) {
+        diff.error = e.getMessage();
+      }
+      return diff;
+    }
+
+    /** The jar without classifier, as produced by the gradle jar task. */
+    private static File mainJar(File libs) {
+      File[] jars = libs.listFiles((d, name) -> name.endsWith(".jar")
+          && !name.matches(".*-(sources|javadoc|tests|test-fixtures|plain)\\.jar"));
+      return jars != null && jars.length == 1 ? jars[0] : null;
+    }
+  }
+
+  @CommandLine.Command(name = "build", mixinStandardHelpOptions = true, description = """
+      Maven-like front build running the generated Gradle build.
+      Regenerates the gradle files (as 2gradle) only when a pom.xml or a 2gradle option changed, then runs gradle with
+      build cache (and configuration cache with --configuration-cache). Maven goals are mapped to gradle tasks:
+        clean -> clean, compile -> classes, test-compile -> testClasses, test -> test, package -> assemble + test,
+        verify/install -> build. Other goals are passed as gradle tasks.
+      Arguments after -- are passed to gradle as they are. Example: xmvn build . clean package -- --offline --max-workers 4
+      """)
+  public static class BuildCommand extends ToGradle {
+    @CommandLine.Parameters(index = "1..*", description = "Maven goals or gradle tasks (default: package), then gradle options after --")
+    public List<String> goals = new ArrayList<>();
+
+    @Option(names = "--skip-tests", description = "Exclude the gradle test task, like -DskipTests", defaultValue = "false")
+    public boolean skipTests;
+
+    @Option(names = "--regenerate", description = "Regenerate the gradle files even if the inputs did not change", defaultValue = "false")
+    public boolean regenerate;
+
+    @Option(names = "--configuration-cache", description = "Run gradle with --configuration-cache; the plugins of the generated build are not all compatible with it", defaultValue = "false")
+    public boolean configurationCache;
+
+    @CommandLine.Spec
+    CommandLine.Model.CommandSpec spec;
+
+    private static final Map<String, List<String>> GOALS = Map.of(
+        "clean", List.of("clean"),
+        "compile", List.of("classes"),
+        "test-compile", List.of("testClasses"),
+        "test", List.of("test"),
+        "package", List.of("assemble", "test"),
+        "verify", List.of("build"),
+        "install", List.of("build"));
+
+    @Override
+    public Integer call() throws Exception {
+      File dir = projectDir.getCanonicalFile();
+      Path fingerprintFile = dir.toPath().resolve("target/xmvn-build.sha256");
+      String fingerprint = inputsFingerprint(dir.toPath());
+      boolean generated = Files.exists(dir.toPath().resolve("settings.gradle.kts")) && Files.exists(dir.toPath().resolve("build.gradle.kts"));
+      if (regenerate || !generated || !Files.exists(fingerprintFile) || !Files.readString(fingerprintFile).equals(fingerprint)) {
+        log.info("Inputs changed, regenerating gradle files");
+        GradleKtsGenerator.sync(new PomLoaderSession(this));
+        Files.createDirectories(fingerprintFile.getParent());
+        Files.writeString(fingerprintFile, fingerprint);
+      } else {
+        log.info("Gradle files are up to date with the poms");
+      }
+
+      List<String> command = new ArrayList<>(List.of(VerifyGradle.gradleCommand(dir), "--build-cache"));
+      if (configurationCache)
+        command.add("--configuration-cache");
+      // picocli drops the -- delimiter: the last goals are the arguments that followed it
+      List<String> args = spec.commandLine().getParseResult().originalArgs();
+      int delimiter = args.indexOf("--");
+      int gradleArgCount = delimiter < 0 ? 0 : Math.min(args.size() - delimiter - 1, goals.size());
+      List<String> gradleArgs = goals.subList(goals.size() - gradleArgCount, goals.size());
+      List<String> mavenGoals = goals.subList(0, goals.size() - gradleArgCount);
+      for (String goal : mavenGoals.isEmpty() ? List.of("package") : mavenGoals) {
+        if (goal.equals("install"))
+          log.warn("Generated gradle builds do not publish to the local maven repository, install runs gradle build only");
+        for (String task : GOALS.getOrDefault(goal, List.of(goal)))
+          if (!command.contains(task))
+            command.add(task);
+      }
+      if (skipTests)
+        command.addAll(List.of("-x", "test"));
+      command.addAll(gradleArgs);
+      log.info("Running {}", String.join(" ", command));
+      try {
+        return new ProcessExecutor().directory(dir).command(command).redirectOutput(System.out).redirectError(System.err).exitValueAny().execute()
+            .getExitValue();
+      } catch (IOException | InterruptedException | TimeoutException e) {
+        throw new RuntimeException("Gradle failed: " + String.join(" ", command), e);
+      }
+    }
+
+    /**
+     * Hash of every pom.xml (path and content), of the 2gradle options and the --plugin-rules files they name, of the maven
+     * settings.xml (mirrors, repositories, local repository) and of xmvn itself (version and, when run from a jar, the jar content).
+     */
+    private String inputsFingerprint(Path dir) throws IOException {
+      java.security.MessageDigest digest;
+      try {
+        digest = java.security.MessageDigest.getInstance("SHA-256");
+      } catch (java.security.NoSuchAlgorithmException e) {
+        throw new RuntimeException(e);
+      }
+      digest.update(("xmvn=" + String.join(",", XmvnRoot.class.getAnnotation(CommandLine.Command.class).version()) + "\n")
+          .getBytes(java.nio.charset.StandardCharsets.UTF_8));
+      Path code = codeLocation();
+      if (code != null && Files.isRegularFile(code))
+        digest.update(Files.readAllBytes(code));
+      Path settings = MvnSettings.userSettingsFile();
+      digest.update(("settings=" + settings + "\nmaven.repo.local=" + System.getProperty("maven.repo.local") + "\n")
+          .getBytes(java.nio.charset.StandardCharsets.UTF_8));
+      if (Files.exists(settings))
+        digest.update(Files.readAllBytes(settings));
+      for (CommandLine.Model.OptionSpec option : spec.options()) {
+        if (option.userObject() instanceof java.lang.reflect.Field field && field.getDeclaringClass() != BuildCommand.class
+            && field.getDeclaringClass() != RichCli.BaseOptions.class) {
+          digest.update((option.longestName() + "=" + option.getValue() + "\n").getBytes(java.nio.charset.StandardCharsets.UTF_8));
+        }
+      }
+      for (File rules : pluginRules)
+        if (rules.isFile())
+          digest.update(Files.readAllBytes(rules.toPath()));
+      List<Path> poms = new ArrayList<>();
+      Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+        @Override
+        public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) {
+          String name = d.getFileName().toString();
+          return name.equals(".git") || name.equals("target") ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+          if (file.getFileName().toString().equals("pom.xml"))
+            poms.add(file);
+          return FileVisitResult.CONTINUE;
+        }
+      });
+      poms.sort(null);
+      for (Path pom : poms) {
+        digest.update((dir.relativize(pom) + "\n").getBytes(java.nio.charset.StandardCharsets.UTF_8));
+        digest.update(Files.readAllBytes(pom));
+      }
+      return java.util.HexFormat.of().formatHex(digest.digest());
+    }
+
+    /** The jar (or class directory) xmvn runs from, null when unknown. */
+    private static Path codeLocation() {
+      try {
+        var source = xmvn.class.getProtectionDomain().getCodeSource();
+        return source != null ? Paths.get(source.getLocation().toURI()) : null;
+      } catch (java.net.URISyntaxException | IllegalArgumentException | SecurityException e) {
+        return null;
+      }
+    }
+  }
+
+  @CommandLine.Command(name = "2eclipse", mixinStandardHelpOptions = true, description = """
+      Generate plain Eclipse .project and .classpath files for every module, without maven or gradle natures.
+      The transitive classpath (resolved offline like `classpath`) is listed: modules become project references, the
+      others point to jars in the local maven repository (the build must have downloaded them once). Missing jars are
+      reported.
+      """)
+  public static class ToEclipse extends ToGradle {
+    @Option(names = "--threads", description = "Modules generated in parallel (default: available processors)")
+    public Integer threads;
+
+    @Override
+    public Integer call() throws Exception {
+      PomLoaderSession session = new PomLoaderSession(this);
+      Project rootPom = session.loadRootPom();
+      GradleKtsGenerator.GradleModules gradleModules = GradleKtsGenerator.GradleModules.index(rootPom);
+      ClasspathResolver resolver = new ClasspathResolver(session, rootPom);
+      List<Project> modules = StreamEx.ofTree(rootPom, p -> StreamEx.of(p.children())).toList();
+      var pool = new java.util.concurrent.ForkJoinPool(threads != null ? threads : Runtime.getRuntime().availableProcessors());
+      long missing;
+      try {
+        missing = pool.submit(() -> modules.parallelStream().mapToLong(m -> EclipseGenerator.generate(m, gradleModules, resolver, this)).sum()).get();
+      } finally {
+        pool.shutdown();
+      }
+      log.info("Generated eclipse projects for {} modules. {} jars missing from the local repository.", modules.size(), missing);
+      return 0;
+    }
+  }
+
+  static class EclipseGenerator {
+    /**
+     * Writes .project and, for java modules, .classpath. The entries are the module's transitive classpath as the
+     * {@link ClasspathResolver} sees it, since eclipse does not export the dependencies of referenced projects. Returns
+     * the number of dependency jars not found.
+     */
+    static long generate(Project module, GradleKtsGenerator.GradleModules gradleModules, ClasspathResolver resolver, ToGradle cli) {
+      Project pom = module.effectivePomOrThis();
+      Path dir = module.pomFile.getParentFile().toPath();
+      boolean java = !"pom".equals(pom.packaging);
+      List<String> references = new ArrayList<>();
+      StringBuilder entries = new StringBuilder();
+      long missing = 0;
+      if (java) {
+        Build build = pom.build;
+        for (String[] source : new String[][] { { build != null ? build.sourceDirectory : null, "src/main/java", "false" },
+            { null, "src/main/resources", "false" },
+            { build != null ? build.testSourceDirectory : null, "src/test/java", "true" },
+            { null, "src/test/resources", "true" } }) {
+          Path folder = dir.resolve(source[0] != null ? source[0] : source[1]);
+          if (Files.isDirectory(folder)) {
+            boolean test = source[2].equals("true");
+            entries.append("  <classpathentry kind=\"src\" path=\"%s\" output=\"%s\"".formatted(xml(linuxPath(dir.relativize(folder))),
+                test ? "target/eclipse/test-classes" : "target/eclipse/classes")).append(end(test));
+          }
+        }
+        entries.append("  <classpathentry kind=\"con\" path=\"org.eclipse.jdt.launching.JRE_CONTAINER/org.eclipse.jdt.internal.debug.ui.launcher.StandardVMType/JavaSE-%s\"/>\n"
+            .formatted(eclipseJavaVersion(GradleKtsGenerator.extractJavaVersionFromEffectivePom(module, cli))));
+        ClasspathResolver.Resolution resolution = resolver.resolve(module);
+        resolution.problems.forEach(problem -> log.warn("In {} {}", module.ga(), problem));
+        for (ClasspathResolver.ResolvedArtifact artifact : resolution.artifacts) {
+          if (artifact.file == null)
+            continue;
+          boolean test = "test".equals(artifact.scope);
+          String entry;
+          if (gradleModules.findByMavenGroupAndArtifact(artifact.groupId, artifact.artifactId) != null) {
+            if (references.contains(artifact.artifactId))
+              continue;
+            references.add(artifact.artifactId);
+            entry = "  <classpathentry combineaccessrules=\"false\" kind=\"src\" path=\"/%s\"".formatted(xml(artifact.artifactId));
+          } else {
+            Path jar = Paths.get(artifact.file);
+            if (artifact.missing)
+              missing++;
+            Path sources = jar.resolveSibling("%s-%s-sources.jar".formatted(artifact.artifactId, artifact.version));
+            entry = "  <classpathentry kind=\"lib\" path=\"%s\"%s".formatted(xml(linuxPath(jar)),
+                Files.exists(sources) ? " sourcepath=\"%s\"".formatted(xml(linuxPath(sources))) : "");
+          }
+          entries.append(entry).append(end(test));
+        }
+        entries.append("  <classpathentry kind=\"output\" path=\"target/eclipse/classes\"/>\n");
+      }
+      try {
+        Files.writeString(dir.resolve(".project"), project(pom.artifactId, references, java));
+        if (java)
+          Files.writeString(dir.resolve(".classpath"), "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<classpath>\n" + entries + "</classpath>\n");
+      } catch (IOException e) {
+        throw new RuntimeException("Failed to write eclipse project for " + module.ga(), e);
+      }
+      return missing;
+    }
+
+    /** Closes a classpathentry, marking test entries so eclipse keeps them off the main classpath. */
+    private static String end(boolean test) {
+      return test ? """
+          >
+              <attributes>
+                <attribute name="test" value="true"/>
+              </attributes>
+            </classpathentry>
+          """ : "/>\n";
+    }
+
+    private static String project(String name, List<String> references, boolean java) {
+      return """
+          <?xml version="1.0" encoding="UTF-8"?>
+          <projectDescription>
+            <name>%s</name>
+            <comment>generated by xmvn 2eclipse</comment>
+            <projects>
+          %s  </projects>
+            <buildSpec>
+          %s  </buildSpec>
+            <natures>
+          %s  </natures>
+          </projectDescription>
+          """.formatted(xml(name), StreamEx.of(references).map(r -> "    <project>" + xml(r) + "</project>\n").joining(),
+          java ? """
+                  <buildCommand>
+                    <name>org.eclipse.jdt.core.javabuilder</name>
+                    <arguments>
+                    </arguments>
+                  </buildCommand>
+              """ : "",
+          java ? "    <nature>org.eclipse.jdt.core.javanature</nature>\n" : "");
+    }
+
+    private static String eclipseJavaVersion(String version) {
+      if (version == null)
+        return "17";
+      return switch (version) {
+      case "5", "6", "7", "8" -> "1." + version;
+      default -> version;
+      };
+    }
+
+    private static String linuxPath(Path path) {
+      return path.toString().replace('\\', '/');
+    }
+
+    private static String xml(String value) {
+      return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+  }
+
+  /** Reads the entries of a zip from its memory mapped central directory, without inflating anything. */
+  static class JarCentralDirectory {
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int CENTRAL_FILE_HEADER = 0x02014b50;
+
+    /** @return entry name to {uncompressed size, crc32}, directories excluded */
+    static Map<String, long[]> read(Path zip) throws IOException {
+      try (var channel = java.nio.channels.FileChannel.open(zip, java.nio.file.StandardOpenOption.READ)) {
+        var buffer = channel.map(java.nio.channels.FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(java.nio.ByteOrder.LITTLE_ENDIAN);
+        int eocd = -1;
+        // the end record is 22 bytes followed by a comment of at most 65535 bytes
+        for (int i = buffer.limit() - 22; i >= Math.max(0, buffer.limit() - 22 - 65535); i--) {
+          if (buffer.getInt(i) == END_OF_CENTRAL_DIRECTORY) {
+            eocd = i;
+            break;
+          }
+        }
+        if (eocd < 0)
+          throw new IOException("Not a zip file " + zip);
+        int entries = Short.toUnsignedInt(buffer.getShort(eocd + 10));
+        long offset = Integer.toUnsignedLong(buffer.getInt(eocd + 16));
+        if (entries == 0xFFFF || offset == 0xFFFFFFFFL)
+          throw new IOException("Zip64 archives are not supported " + zip);
+        Map<String, long[]> result = new TreeMap<>();
+        int pos = (int) offset;
+        byte[] name = new byte[256];
+        for (int i = 0; i < entries; i++) {
+          if (buffer.getInt(pos) != CENTRAL_FILE_HEADER)
+            throw new IOException("Corrupt central directory in " + zip + " at " + pos);
+          long crc = Integer.toUnsignedLong(buffer.getInt(pos + 16));
+          long size = Integer.toUnsignedLong(buffer.getInt(pos + 24));
+          int nameLength = Short.toUnsignedInt(buffer.getShort(pos + 28));
+          int extraLength = Short.toUnsignedInt(buffer.getShort(pos + 30));
+          int commentLength = Short.toUnsignedInt(buffer.getShort(pos + 32));
+          if (name.length < nameLength)
+            name = new byte[nameLength];
+          buffer.get(pos + 46, name, 0, nameLength);
+          String entry = new String(name, 0, nameLength, java.nio.charset.StandardCharsets.UTF_8);
+          if (!entry.endsWith("/"))
+            result.put(entry, new long[] { size, crc });
+          pos += 46 + nameLength + extraLength + commentLength;
+        }
+        return result;
+      }
+    }
+  }
+
+  /**
+   * Compact dependency graph of a loaded multi-module project.
+   *
+   * GA coordinates are interned to int ids, edges are kept in parallel primitive arrays and, once
+   * {@link #freeze()}d, indexed in CSR form (offsets + edge ids) for both directions. Scopes and types
+   * are encoded as bytes. Exporters (2graph, 2arango, analyze) convert to their own representation only
+   * at output time.
+   */
+  public static class DependencyGraph {
+    public static final byte NODE_PROJECT = 0;
+    public static final byte NODE_LIBRARY = 1;
+    public static final byte NODE_MODULE_AGGREGATOR = 2;
+    public static final byte NODE_PARENT = 3;
+    public static final byte NODE_PARENT_DIR = 4;
+    private static final String[] NODE_KIND_NAMES = { "project", null, "moduleAgregator", "parent", "parentDir" };
+
+    public static final byte EDGE_DEPENDENCY = 0;
+    public static final byte EDGE_MODULE_AGGREGATOR = 1;
+    public static final byte EDGE_PARENT = 2;
+    public static final byte EDGE_PARENT_DIR = 3;
+    private static final String[] EDGE_RELATION_NAMES = { null, "moduleAgregator", "parent", "parentDir" };
+
+    /** Small string tables for scopes and types. Code 0 is reserved for null. */
+    private final ByteCodes scopes = new ByteCodes("compile", "provided", "runtime", "test", "system", "import");
+    private final ByteCodes types = new ByteCodes("jar", "pom", "test-jar", "war", "ear", "bundle");
+
+    // nodes
+    private int nodeCount;
+    private int[] gaTable = new int[64];
+    private String[] groupIds = new String[16];
+    private String[] artifactIds = new String[16];
+    private String[] versions = new String[16];
+    private String[] packagings = new String[16];
+    private String[] buildTools = new String[16];
+    private byte[] nodeKinds = new byte[16];
+    private byte[] nodeScopes = new byte[16];
+
+    // edges
+    private int edgeCount;
+    private int[] edgeSources = new int[16];
+    private int[] edgeTargets = new int[16];
+    private byte[] edgeKinds = new byte[16];
+    private byte[] edgeScopes = new byte[16];
+    private byte[] edgeTypes = new byte[16];
+    private String[] edgeClassifiers = new String[16];
+    private long[] edgeKeyTable = new long[64];
+
+    // CSR, built by freeze()
+    private int[] outStart;
+    private int[] outEdges;
+    private int[] inStart;
+    private int[] inEdges;
+
+    public static DependencyGraph of(Project rootPom) {
+      DependencyGraph graph = new DependencyGraph();
+      Traverser<xmvn.Project> traverser = Traverser.forTree(p -> {
+        if (p.modules != null && p.modules.modules != null) {
+          return p.children().stream().filter(Objects::nonNull).toList();
+        }
+        return List.of();
+      });
+      traverser.depthFirstPreOrder(rootPom).forEach(graph::addProjectAndDeps);
+      return graph.freeze();
+    }
+
+    private void addProjectAndDeps(xmvn.Project projectOrig) {
+      Project project = projectOrig.effectivePomOrThis();
+      log.debug("Add to graph project {}", project.idAndPath());
+
+      //if contains jib-maven-plugin, add to packaging
+      var packaging = project.packaging;
+      if (project.build != null && project.build.plugins != null && project.build.plugins.plugin != null
+          && project.build.plugins.plugin.stream().anyMatch(p -> "jib-maven-plugin".equals(p.artifactId))) {
+        packaging = packaging + "+docker(jib)";
+      }
+      int projectId = addNode(NODE_PROJECT, project.groupId, project.artifactId, project.version, packaging, "maven", null);
+
+      if (project.dependencies != null && project.dependencies.dependency != null) {
+        for (var dep : project.dependencies.dependency) {
+          int depId = addNode(NODE_LIBRARY, dep.groupId, dep.artifactId, dep.version, dep.type, null, dep.scope);
+          addEdge(projectId, depId, EDGE_DEPENDENCY, dep.scope, dep.type, dep.classifier);
+        }
+      }
+      if (projectOrig.moduleAgregator != null) {
+        var parent = projectOrig.moduleAgregator.effectivePomOrThis();
+        int parentId = addNode(NODE_MODULE_AGGREGATOR, parent.groupId, parent.artifactId, parent.version, "pom", "maven", null);
+        addEdge(projectId, parentId, EDGE_MODULE_AGGREGATOR, null, "pom", null);
+      }
+      // parent links are resolved on the pom.xml model, the effective pom only has them when it is the same object
+      var parentPom = project.parentPom != null ? project.parentPom : projectOrig.parentPom;
+      if (parentPom != null) {
+        var parent = parentPom.effectivePomOrThis();
+        int parentId = addNode(NODE_PARENT, parent.groupId, parent.artifactId, parent.version, "pom", null, null);
+        addEdge(projectId, parentId, EDGE_PARENT, null, "pom", null);
+      }
+      var parentDirPom = project.parentDirPom != null ? project.parentDirPom : projectOrig.parentDirPom;
+      if (parentDirPom != null) {
+        var parent = parentDirPom.effectivePomOrThis();
+        int parentId = addNode(NODE_PARENT_DIR, parent.groupId, parent.artifactId, parent.version, "pom", null, null);
+        addEdge(projectId, parentId, EDGE_PARENT_DIR, null, "pom", null);
+      }
+    }
+
+    /**
+     * Returns the id for groupId:artifactId, adding the node if missing. Project attributes win over
+     * attributes seen earlier from a dependency or parent reference.
+     */
+    public int addNode(byte kind, String groupId, String artifactId, String version, String packaging, String buildTool, String scope) {
+      checkNotFrozen();
+      int id = findNode(groupId, artifactId);
+      if (id < 0) {
+        id = nodeCount++;
+        ensureNodeCapacity(nodeCount);
+        groupIds[id] = groupId;
+        artifactIds[id] = artifactId;
+        insertGa(id);
+      } else if (nodeKinds[id] == NODE_PROJECT || kind != NODE_PROJECT) {
+        return id;
+      }
+      nodeKinds[id] = kind;
+      versions[id] = version;
+      packagings[id] = packaging;
+      buildTools[id] = buildTool;
+      nodeScopes[id] = scopes.code(scope);
+      return id;
+    }
+
+    /** Adds an edge unless one with the same source, target and kind already exists. Returns false for duplicates. */
+    public boolean addEdge(int source, int target, byte kind, String scope, String type, String classifier) {
+      checkNotFrozen();
+      long key = ((long) kind << 60) | ((long) source << 30) | target;
+      if (!insertEdgeKey(key))
+        return false;
+      int e = edgeCount++;
+      if (e == edgeSources.length) {
+        int capacity = e * 2;
+        edgeSources = Arrays.copyOf(edgeSources, capacity);
+        edgeTargets = Arrays.copyOf(edgeTargets, capacity);
+        edgeKinds = Arrays.copyOf(edgeKinds, capacity);
+        edgeScopes = Arrays.copyOf(edgeScopes, capacity);
+        edgeTypes = Arrays.copyOf(edgeTypes, capacity);
+        edgeClassifiers = Arrays.copyOf(edgeClassifiers, capacity);
+      }
+      edgeSources[e] = source;
+      edgeTargets[e] = target;
+      edgeKinds[e] = kind;
+      edgeScopes[e] = scopes.code(scope);
+      edgeTypes[e] = types.code(type);
+      edgeClassifiers[e] = classifier;
+      return true;
+    }
+
+    /** Builds the CSR indexes. No nodes or edges can be added afterwards. */
+    public DependencyGraph freeze() {
+      if (outStart != null)
+        return this;
+      outStart = new int[nodeCount + 1];
+      inStart = new int[nodeCount + 1];
+      outEdges = new int[edgeCount];
+      inEdges = new int[edgeCount];
+      for (int e = 0; e < edgeCount; e++) {
+        outStart[edgeSources[e] + 1]++;
+        inStart[edgeTargets[e] + 1]++;
+      }
+      for (int i = 0; i < nodeCount; i++) {
+        outStart[i + 1] += outStart[i];
+        inStart[i + 1] += inStart[i];
+      }
+      int[] outFill = Arrays.copyOf(outStart, nodeCount);
+      int[] inFill = Arrays.copyOf(inStart, nodeCount);
+      for (int e = 0; e < edgeCount; e++) {
+        outEdges[outFill[edgeSources[e]]++] = e;
+        inEdges[inFill[edgeTargets[e]]++] = e;
+      }
+      edgeKeyTable = null;
+      return this;
+    }
+
+    public int nodeCount() {
+      return nodeCount;
+    }
+
+    public int edgeCount() {
+      return edgeCount;
+    }
+
+    public int findNode(String groupId, String artifactId) {
+      int mask = gaTable.length - 1;
+      for (int slot = gaHash(groupId, artifactId) & mask;; slot = (slot + 1) & mask) {
+        int id = gaTable[slot] - 1;
+        if (id < 0)
+          return -1;
+        if (Objects.equals(groupIds[id], groupId) && Objects.equals(artifactIds[id], artifactId))
+          return id;
+      }
+    }
+
+    public String ga(int node) {
+      return groupIds[node] + ":" + artifactIds[node];
+    }
+
+    public String groupId(int node) {
+      return groupIds[node];
     }
 
-    private void generateArangoGraph(xmvn.Project rootPom) {
-      List<String> projectDocs = new ArrayList<>();
-      List<String> dependencyDocs = new ArrayList<>();
-      List<String> edgeDocs = new ArrayList<>();
-
-      StringBuilder script = new StringBuilder();
-      script.append("""
-          // AQL script for ArangoDB
-          //echo Check password
-          //docker logs arangodb-instance
-          //===========================================
-          //GENERATED ROOT PASSWORD: ***
-          //===========================================
-          //echo Connect to arangodb
-          //docker exec -it arangodb-instance arangosh
-          //echo Create database xmvn
-          //use xmvn
-          """);
+    public String artifactId(int node) {
+      return artifactIds[node];
+    }
 
-      Traverser<xmvn.Project> traverser = Traverser.forTree(p -> {
-        if (p.modules != null && p.modules.modules != null) {
-          return p.modules.modules.stream().map(m -> xmvn.PomLoader.loadPom(null, p, new File(p.pomFile.getParentFile(), m), p.context))
-              .filter(Objects::nonNull).toList();
-        }
-        return List.of();
-      });
+    public String version(int node) {
+      return versions[node];
+    }
 
-      traverser.depthFirstPreOrder(rootPom).forEach(p -> emitProjectAndDeps(p, projectDocs, dependencyDocs, edgeDocs));
+    public String packaging(int node) {
+      return packagings[node];
+    }
 
-      if (!projectDocs.isEmpty()) {
-        script.append("""
-            FOR doc IN [
-            %s
-            ] INSERT doc INTO projects OPTIONS { overwrite: true }
+    public String buildTool(int node) {
+      return buildTools[node];
+    }
 
-            """.formatted(String.join(",\n", projectDocs)));
-      }
-      if (!dependencyDocs.isEmpty()) {
-        script.append("""
-            FOR doc IN [
-            %s
-            ] INSERT doc INTO dependencies OPTIONS { overwrite: true }
+    public byte nodeKind(int node) {
+      return nodeKinds[node];
+    }
 
-            """.formatted(String.join(",\n", dependencyDocs)));
-      }
-      if (!edgeDocs.isEmpty()) {
-        script.append("""
-            FOR doc IN [
-            %s
-            ] INSERT doc INTO edges OPTIONS { overwrite: true }
+    /** Node type as shown in exports: the kind name, or for libraries the scope they were first seen with. */
+    public String nodeType(int node) {
+      return nodeKinds[node] == NODE_LIBRARY ? scopes.name(nodeScopes[node]) : NODE_KIND_NAMES[nodeKinds[node]];
+    }
 
-            """.formatted(String.join(",\n", edgeDocs)));
-      }
+    public int edgeSource(int edge) {
+      return edgeSources[edge];
+    }
 
-      System.out.println(script.toString());
+    public int edgeTarget(int edge) {
+      return edgeTargets[edge];
     }
 
-    private void emitProjectAndDeps(xmvn.Project project, List<String> projects, List<String> dependencies, List<String> edges) {
-      String projKey = (project.groupId + "_" + project.artifactId).replaceAll("[^a-zA-Z0-9_]", "_");
+    public byte edgeKind(int edge) {
+      return edgeKinds[edge];
+    }
 
-      projects.add("""
-          { _key: "%s", groupId: "%s", artifactId: "%s", version: "%s", packaging: "%s" }
-          """.formatted(projKey, project.groupId, project.artifactId, project.version != null ? project.version : "unknown",
-          project.packaging != null ? project.packaging : "jar"));
+    public String edgeRelation(int edge) {
+      return EDGE_RELATION_NAMES[edgeKinds[edge]];
+    }
 
-      if (project.dependencies != null && project.dependencies.dependency != null) {
-        for (var dep : project.dependencies.dependency) {
-          String depKey = (dep.groupId + "_" + dep.artifactId).replaceAll("[^a-zA-Z0-9_]", "_");
+    public String edgeScope(int edge) {
+      return scopes.name(edgeScopes[edge]);
+    }
 
-          dependencies.add("""
-              { _key: "%s", groupId: "%s", artifactId: "%s", version: "%s", packaging: "%s" }
-              """.formatted(depKey, dep.groupId, dep.artifactId, dep.version != null ? dep.version : "unknown", dep.type != null ? dep.type : "jar"));
+    public String edgeType(int edge) {
+      return types.name(edgeTypes[edge]);
+    }
 
-          edges.add("""
-              { _from: "projects/%s", _to: "dependencies/%s", scope: "%s" }
-              """.formatted(projKey, depKey, dep.scope != null ? dep.scope : "compile"));
-        }
-      }
+    public String edgeClassifier(int edge) {
+      return edgeClassifiers[edge];
     }
 
-  }
+    /** Edge ids leaving node are {@code outEdges()[outStart()[node]] .. outEdges()[outStart()[node + 1] - 1]}. */
+    public int[] outStart() {
+      checkFrozen();
+      return outStart;
+    }
 
-  @CommandLine.Command(name = "2gradle", mixinStandardHelpOptions = true, description = "Convert a maven multi-module base to equivalent gradle build.", footer = """
-      Convert a maven multi-module base to equivalent gradle build.
+    public int[] outEdges() {
+      checkFrozen();
+      return outEdges;
+    }
 
-      ## Features
+    public int[] inStart() {
+      checkFrozen();
+      return inStart;
+    }
 
-      ## History
+    public int[] inEdges() {
+      checkFrozen();
+      return inEdges;
+    }
 
-      - 2025-02-08
-        - new: lombok compatibility
-        - new: inheritance of dependencies from parent
-        - new: inheritance of plugin configs from parent
-        - new: use testJars dependencies directly at compile - no jar build necessary
-        - new: use submodules dependencies independent of location (as long as they are locally)
-        - new: annotation processor are handled as well: immutable, mapstruct, etc.
-        - new: antlr4 support
-        - new: compile excludes support
-        - new: proper config of mavenLocal
-        - new: compiler can be configured with `-P-GCompiler-Xlint:unchecked -P-GCompiler-nowarn`
-      - 2025-08-17
-        - new: add jaxb jxc plugin configs
+    /** Node ids ordered by groupId:artifactId, the order used by exporters. */
+    public int[] nodesSortedByGa() {
+      String[] keys = new String[nodeCount];
+      for (int id = 0; id < nodeCount; id++)
+        keys[id] = ga(id);
+      return java.util.stream.IntStream.range(0, nodeCount).boxed().sorted(java.util.Comparator.comparing((Integer id) -> keys[id]))
+          .mapToInt(Integer::intValue).toArray();
+    }
 
-      ## TODO
+    private void checkNotFrozen() {
+      if (outStart != null)
+        throw new IllegalStateException("DependencyGraph is frozen");
+    }
 
-      - self-check that generates same artifacts as mvn - same content and size but faster
-      - cache runs of gradle build. do not ovewrite if is identical
-      - add a front build that behinds generates gradle build files and runs gradle build
-      - add a build to eclipse standard projects (not dependent on gradle or maven or other natures) but properly configures dependencies
-        between submodules and generates eclipse project files
-      """)
-  public static class ToGradle extends LoadPomOptions implements Callable<Integer> {
-    @Option(names = "--inline-versions", description = "Inline dependency versions instead of using val variables")
-    public boolean inlineVersions = false;
+    private void checkFrozen() {
+      if (outStart == null)
+        throw new IllegalStateException("DependencyGraph is not frozen yet. Call freeze() first.");
+    }
 
-    @Option(names = "--maven-compatible", description = "Generate settings.gradle.kts compatible with Maven:\n - generate inside target/gradle")
-    public boolean mavenCompatible = true;
+    private void ensureNodeCapacity(int size) {
+      if (size <= groupIds.length)
+        return;
+      int capacity = groupIds.length * 2;
+      groupIds = Arrays.copyOf(groupIds, capacity);
+      artifactIds = Arrays.copyOf(artifactIds, capacity);
+      versions = Arrays.copyOf(versions, capacity);
+      packagings = Arrays.copyOf(packagings, capacity);
+      buildTools = Arrays.copyOf(buildTools, capacity);
+      nodeKinds = Arrays.copyOf(nodeKinds, capacity);
+      nodeScopes = Arrays.copyOf(nodeScopes, capacity);
+    }
+
+    private static int gaHash(String groupId, String artifactId) {
+      int h = 31 * Objects.hashCode(groupId) + Objects.hashCode(artifactId);
+      return h ^ (h >>> 16);
+    }
+
+    private void insertGa(int id) {
+      if (nodeCount * 2 > gaTable.length) {
+        gaTable = new int[gaTable.length * 2];
+        for (int i = 0; i < nodeCount; i++)
+          placeGa(i);
+      } else {
+        placeGa(id);
+      }
+    }
 
-    @Option(names = "--ignore-unknown-versions", description = "Ignore unknown dependencies versions (useful in debug)", defaultValue = "false", showDefaultValue = CommandLine.Help.Visibility.ON_DEMAND)
-    public boolean ignoreUnknownVersions = false;
+    private void placeGa(int id) {
+      int mask = gaTable.length - 1;
+      int slot = gaHash(groupIds[id], artifactIds[id]) & mask;
+      while (gaTable[slot] != 0)
+        slot = (slot + 1) & mask;
+      gaTable[slot] = id + 1;
+    }
 
-    @Option(names = "--ignore-unknown-java-version", description = "Ignore unknown Java version in pom.xml (useful in debug)", defaultValue = "true", showDefaultValue = CommandLine.Help.Visibility.ON_DEMAND)
-    public boolean ignoreUnknownJavaVersion = true;
+    /** Open addressing set of edge keys. Keys are never 0 because they are stored +1. */
+    private boolean insertEdgeKey(long key) {
+      if ((edgeCount + 1) * 2 > edgeKeyTable.length) {
+        long[] old = edgeKeyTable;
+        edgeKeyTable = new long[old.length * 2];
+        for (long k : old)
+          if (k != 0)
+            placeEdgeKey(k);
+      }
+      return placeEdgeKey(key + 1);
+    }
 
-    @Option(names = "--use-implementation-dependencies", description = "Use implementation dependencies instead of api. Use this if you want to compile only against explicit dependencies.", defaultValue = "false", showDefaultValue = CommandLine.Help.Visibility.ON_DEMAND)
-    public Boolean useImplementationDependencies = null;
+    private boolean placeEdgeKey(long storedKey) {
+      int mask = edgeKeyTable.length - 1;
+      int slot = Long.hashCode(storedKey * 0x9E3779B97F4A7C15L) & mask;
+      while (edgeKeyTable[slot] != 0) {
+        if (edgeKeyTable[slot] == storedKey)
+          return false;
+        slot = (slot + 1) & mask;
+      }
+      edgeKeyTable[slot] = storedKey;
+      return true;
+    }
 
-    @Option(names = "--use-api-dependencies", description = "Use api dependencies instead of implementation. Dependencies appearing in the api configurations will be transitively exposed to consumers of the library, and as such will appear on the compile classpath of consumers. This is the default since maven offers only this.", defaultValue = "true", showDefaultValue = CommandLine.Help.Visibility.ALWAYS)
-    public Boolean useApiDependencies = null;
+    private static class ByteCodes {
+      private final List<String> names = new ArrayList<>();
 
-    @Option(names = "--force-provided-for-tests", description = "Force compileOnly+testImplementation for the maven scope=provided libraries [:group:artifact1:,:group2:artifact2:]", defaultValue = ":org.apache.maven:maven-compat:", showDefaultValue = CommandLine.Help.Visibility.ALWAYS)
-    public String forceProvidedForTests = ":org.apache.maven:maven-compat:";
+      ByteCodes(String... known) {
+        names.add(null);
+        names.addAll(List.of(known));
+      }
 
-    @Override
-    public Integer call() throws Exception {
-      return GradleKtsGenerator.sync(this);
+      byte code(String name) {
+        if (name == null)
+          return 0;
+        int index = names.indexOf(name);
+        if (index < 0) {
+          if (names.size() > 255)
+            throw new IllegalStateException("Too many distinct values: " + names);
+          index = names.size();
+          names.add(name);
+        }
+        return (byte) index;
+      }
+
+      String name(byte code) {
+        return names.get(code & 0xff);
+      }
     }
+  }
 
-    public boolean useApiDependencies() {
-      if (useApiDependencies == useImplementationDependencies) {
-        throw new IllegalArgumentException("Cannot use both --use-api-dependencies and --use-implementation-dependencies at the same time.");
+  /**
+   * Server-side node placement for 2graph, so the browser can render large graphs without running a layout first.
+   *
+   * - {@link #layers(DependencyGraph)}: hierarchical, dependencies below their dependents, ordered by barycenter.
+   * - {@link #forceAtlas2(DependencyGraph, int, boolean, double, int)}: ForceAtlas2 with Gephi's adaptive speed,
+   * Barnes-Hut approximated repulsion and forces computed in parallel.
+   */
+  public static class GraphLayout {
+    public final String name;
+    public final double[] x;
+    public final double[] y;
+
+    private GraphLayout(String name, int nodeCount) {
+      this.name = name;
+      this.x = new double[nodeCount];
+      this.y = new double[nodeCount];
+    }
+
+    public enum Kind {
+      none, layers, forceatlas2
+    }
+
+    private static final double SPACING = 10;
+
+    public static GraphLayout layers(DependencyGraph graph) {
+      int n = graph.nodeCount();
+      int[] start = graph.outStart();
+      int[] outEdges = graph.outEdges();
+      int[] targets = new int[outEdges.length];
+      for (int i = 0; i < outEdges.length; i++)
+        targets[i] = graph.edgeTarget(outEdges[i]);
+      // dependencies first: every edge goes to a component with a smaller or equal number
+      int[] comp = ModuleGraphAnalysis.stronglyConnectedComponents(n, start, targets);
+      Integer[] byComp = new Integer[n];
+      for (int i = 0; i < n; i++)
+        byComp[i] = i;
+      Arrays.sort(byComp, java.util.Comparator.comparingInt(i -> comp[i]));
+      int[] layer = new int[n];
+      for (int u : byComp)
+        for (int i = start[u]; i < start[u + 1]; i++)
+          if (comp[targets[i]] != comp[u])
+            layer[u] = Math.max(layer[u], layer[targets[i]] + 1);
+
+      GraphLayout layout = new GraphLayout("layers", n);
+      int layerCount = Arrays.stream(layer).max().orElse(-1) + 1;
+      List<List<Integer>> members = new ArrayList<>();
+      for (int l = 0; l < layerCount; l++)
+        members.add(new ArrayList<>());
+      int[] sorted = graph.nodesSortedByGa();
+      int[] rank = new int[n];
+      for (int i = 0; i < n; i++) {
+        rank[sorted[i]] = i;
+        members.get(layer[sorted[i]]).add(sorted[i]);
+      }
+      double[] barycenter = new double[n];
+      for (int l = 0; l < layerCount; l++) {
+        List<Integer> row = members.get(l);
+        for (int u : row) {
+          double sum = 0;
+          int count = 0;
+          for (int i = start[u]; i < start[u + 1]; i++) {
+            if (layer[targets[i]] < l) {
+              sum += layout.x[targets[i]];
+              count++;
+            }
+          }
+          barycenter[u] = count > 0 ? sum / count : rank[u];
+        }
+        row.sort(java.util.Comparator.comparingDouble((Integer u) -> barycenter[u]).thenComparingInt(u -> rank[u]));
+        for (int i = 0; i < row.size(); i++) {
+          layout.x[row.get(i)] = (i - (row.size() - 1) / 2.0) * SPACING;
+          layout.y[row.get(i)] = l * SPACING * 2;
+        }
+      }
+      return layout;
+    }
+
+    public static GraphLayout forceAtlas2(DependencyGraph graph, int iterations, boolean barnesHut, double theta, int threads) {
+      int n = graph.nodeCount();
+      GraphLayout layout = new GraphLayout("forceatlas2", n);
+      double[] x = layout.x;
+      double[] y = layout.y;
+      double[] mass = new double[n];
+      int[] outStart = graph.outStart();
+      int[] inStart = graph.inStart();
+      for (int i = 0; i < n; i++) {
+        mass[i] = 1 + (outStart[i + 1] - outStart[i]) + (inStart[i + 1] - inStart[i]);
+        // deterministic start on a golden angle spiral
+        double r = SPACING * Math.sqrt(i + 1);
+        double angle = i * 2.399963229728653;
+        x[i] = r * Math.cos(angle);
+        y[i] = r * Math.sin(angle);
+      }
+      double scalingRatio = 10;
+      double gravity = 1;
+      double jitterTolerance = 1;
+      double[] fx = new double[n];
+      double[] fy = new double[n];
+      double[] oldFx = new double[n];
+      double[] oldFy = new double[n];
+      double speed = 1;
+      double speedEfficiency = 1;
+
+      java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(Math.max(1, threads));
+      try {
+        for (int iteration = 0; iteration < iterations; iteration++) {
+          double[] swapX = oldFx;
+          oldFx = fx;
+          fx = swapX;
+          double[] swapY = oldFy;
+          oldFy = fy;
+          fy = swapY;
+          QuadTree tree = barnesHut ? QuadTree.build(x, y, mass) : null;
+          double[] forceX = fx;
+          double[] forceY = fy;
+          pool.submit(() -> java.util.stream.IntStream.range(0, n).parallel().forEach(i -> {
+            double sx = 0;
+            double sy = 0;
+            // repulsion
+            if (tree != null) {
+              double[] f = tree.repulsion(i, x[i], y[i], mass[i], scalingRatio, theta);
+              sx += f[0];
+              sy += f[1];
+            } else {
+              for (int j = 0; j < n; j++) {
+                if (j == i)
+                  continue;
+                double dx = x[i] - x[j];
+                double dy = y[i] - y[j];
+                double d2 = dx * dx + dy * dy;
+                if (d2 > 0) {
+                  double factor = scalingRatio * mass[i] * mass[j] / d2;
+                  sx += dx * factor;
+                  sy += dy * factor;
+                }
+              }
+            }
+            // gravity
+            double distance = Math.sqrt(x[i] * x[i] + y[i] * y[i]);
+            if (distance > 0) {
+              double factor = gravity * mass[i] / distance;
+              sx -= x[i] * factor;
+              sy -= y[i] * factor;
+            }
+            // attraction along edges in both directions
+            for (int k = outStart[i]; k < outStart[i + 1]; k++) {
+              int j = graph.edgeTarget(graph.outEdges()[k]);
+              sx -= x[i] - x[j];
+              sy -= y[i] - y[j];
+            }
+            for (int k = inStart[i]; k < inStart[i + 1]; k++) {
+              int j = graph.edgeSource(graph.inEdges()[k]);
+              sx -= x[i] - x[j];
+              sy -= y[i] - y[j];
+            }
+            forceX[i] = sx;
+            forceY[i] = sy;
+          })).join();
+
+          // adaptive speed, as in Gephi's ForceAtlas2
+          double totalSwinging = 0;
+          double totalTraction = 0;
+          double[] swinging = new double[n];
+          for (int i = 0; i < n; i++) {
+            swinging[i] = mass[i] * Math.hypot(fx[i] - oldFx[i], fy[i] - oldFy[i]);
+            totalSwinging += swinging[i];
+            totalTraction += mass[i] * Math.hypot(fx[i] + oldFx[i], fy[i] + oldFy[i]) / 2;
+          }
+          if (totalSwinging == 0)
+            break;
+          double estimatedOptimalJitterTolerance = 0.05 * Math.sqrt(n);
+          double minJt = Math.sqrt(estimatedOptimalJitterTolerance);
+          double jt = jitterTolerance * Math.max(minJt, Math.min(10, estimatedOptimalJitterTolerance * totalTraction / ((double) n * n)));
+          double minSpeedEfficiency = 0.05;
+          if (totalSwinging / totalTraction > 2.0) {
+            if (speedEfficiency > minSpeedEfficiency)
+              speedEfficiency *= 0.5;
+            jt = Math.max(jt, jitterTolerance);
+          }
+          double targetSpeed = jt * speedEfficiency * totalTraction / totalSwinging;
+          if (totalSwinging > jt * totalTraction) {
+            if (speedEfficiency > minSpeedEfficiency)
+              speedEfficiency *= 0.7;
+          } else if (speed < 1000) {
+            speedEfficiency *= 1.3;
+          }
+          speed = speed + Math.min(targetSpeed - speed, 0.5 * speed);
+          for (int i = 0; i < n; i++) {
+            double factor = speed / (1 + Math.sqrt(speed * swinging[i]));
+            x[i] += fx[i] * factor;
+            y[i] += fy[i] * factor;
+          }
+        }
+      } finally {
+        pool.shutdown();
+      }
+      return layout;
+    }
+
+    /** Array based quadtree with mass centers for Barnes-Hut repulsion. Read only after build so it can be queried in parallel. */
+    static class QuadTree {
+      private static final int MAX_DEPTH = 40;
+      private static final int EMPTY = -1;
+      private static final int INTERNAL = -2;
+      private static final int MULTIPLE = -3;
+      private int size;
+      private double[] centerX = new double[64];
+      private double[] centerY = new double[64];
+      private double[] half = new double[64];
+      private double[] cellMass = new double[64];
+      private double[] massX = new double[64];
+      private double[] massY = new double[64];
+      private int[] body = new int[64];
+      private int[] firstChild = new int[64];
+      private int[] depth = new int[64];
+      private double[] x;
+      private double[] y;
+      private double[] mass;
+      private final ThreadLocal<int[]> stacks = ThreadLocal.withInitial(() -> new int[4 * MAX_DEPTH + 8]);
+
+      static QuadTree build(double[] x, double[] y, double[] mass) {
+        QuadTree tree = new QuadTree();
+        tree.x = x;
+        tree.y = y;
+        tree.mass = mass;
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int i = 0; i < x.length; i++) {
+          minX = Math.min(minX, x[i]);
+          maxX = Math.max(maxX, x[i]);
+          minY = Math.min(minY, y[i]);
+          maxY = Math.max(maxY, y[i]);
+        }
+        double h = Math.max(maxX - minX, maxY - minY) / 2 + 1;
+        tree.newCell((minX + maxX) / 2, (minY + maxY) / 2, h, 0);
+        for (int i = 0; i < x.length; i++)
+          tree.insert(i);
+        return tree;
+      }
+
+      private int newCell(double cx, double cy, double h, int d) {
+        if (size == body.length) {
+          int capacity = size * 2;
+          centerX = Arrays.copyOf(centerX, capacity);
+          centerY = Arrays.copyOf(centerY, capacity);
+          half = Arrays.copyOf(half, capacity);
+          cellMass = Arrays.copyOf(cellMass, capacity);
+          massX = Arrays.copyOf(massX, capacity);
+          massY = Arrays.copyOf(massY, capacity);
+          body = Arrays.copyOf(body, capacity);
+          firstChild = Arrays.copyOf(firstChild, capacity);
+          depth = Arrays.copyOf(depth, capacity);
+        }
+        int c = size++;
+        centerX[c] = cx;
+        centerY[c] = cy;
+        half[c] = h;
+        depth[c] = d;
+        body[c] = EMPTY;
+        cellMass[c] = massX[c] = massY[c] = 0;
+        return c;
+      }
+
+      private void insert(int i) {
+        int c = 0;
+        while (true) {
+          cellMass[c] += mass[i];
+          massX[c] += x[i] * mass[i];
+          massY[c] += y[i] * mass[i];
+          if (body[c] == EMPTY) {
+            body[c] = i;
+            return;
+          }
+          if (body[c] == MULTIPLE)
+            return;
+          if (body[c] >= 0) {
+            if (depth[c] >= MAX_DEPTH) {
+              body[c] = MULTIPLE;
+              return;
+            }
+            int existing = body[c];
+            body[c] = INTERNAL;
+            double h = half[c] / 2;
+            int first = newCell(centerX[c] - h, centerY[c] - h, h, depth[c] + 1);
+            newCell(centerX[c] + h, centerY[c] - h, h, depth[c] + 1);
+            newCell(centerX[c] - h, centerY[c] + h, h, depth[c] + 1);
+            newCell(centerX[c] + h, centerY[c] + h, h, depth[c] + 1);
+            firstChild[c] = first;
+            int child = quadrant(c, existing);
+            cellMass[child] += mass[existing];
+            massX[child] += x[existing] * mass[existing];
+            massY[child] += y[existing] * mass[existing];
+            body[child] = existing;
+          }
+          c = quadrant(c, i);
+        }
+      }
+
+      private int quadrant(int c, int i) {
+        return firstChild[c] + (x[i] >= centerX[c] ? 1 : 0) + (y[i] >= centerY[c] ? 2 : 0);
+      }
+
+      double[] repulsion(int i, double xi, double yi, double mi, double scalingRatio, double theta) {
+        int[] stack = stacks.get();
+        int sp = 0;
+        stack[sp++] = 0;
+        double sx = 0;
+        double sy = 0;
+        while (sp > 0) {
+          int c = stack[--sp];
+          if (body[c] == EMPTY || body[c] == i)
+            continue;
+          double cx = massX[c] / cellMass[c];
+          double cy = massY[c] / cellMass[c];
+          double dx = xi - cx;
+          double dy = yi - cy;
+          double d2 = dx * dx + dy * dy;
+          if (body[c] == INTERNAL && 4 * half[c] * half[c] >= theta * theta * d2) {
+            for (int k = 0; k < 4; k++)
+              stack[sp++] = firstChild[c] + k;
+            continue;
+          }
+          if (d2 > 0) {
+            double factor = scalingRatio * mi * cellMass[c] / d2;
+            sx += dx * factor;
+            sy += dy * factor;
+          }
+        }
+        return new double[] { sx, sy };
       }
-      return useApiDependencies && !useImplementationDependencies;
     }
   }
 
@@ -561,11 +2589,13 @@ public class xmvn {
   }
 
   public static class ProjectContext {
+    public final PomLoaderSession session;
     public final LoadPomOptions cli;
     public Project root;
     public final Projects effectivePom;
 
-    public ProjectContext(LoadPomOptions cli, Project root, Projects effectivePom) {
+    public ProjectContext(PomLoaderSession session, LoadPomOptions cli, Project root, Projects effectivePom) {
+      this.session = session;
       this.cli = cli;
       this.root = root;
       this.effectivePom = effectivePom;
@@ -574,7 +2604,7 @@ public class xmvn {
     }
 
     public ProjectContext withRoot(Project newRoot) {
-      return new ProjectContext(cli, newRoot, effectivePom);
+      return new ProjectContext(session, cli, newRoot, effectivePom);
     }
 
     public void reconfigureEffectivePom(xmvn.Project pom) {
@@ -590,7 +2620,7 @@ public class xmvn {
   }
 
   @com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlRootElement(localName = "project")
-  public static class Project implements Comparable<Project> {
+  public static class Project implements Comparable<Project>, Cloneable {
     // --- Root attributes (namespace, schema) ---
     @com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlProperty(isAttribute = true, localName = "xmlns")
     public String xmlns;
@@ -613,6 +2643,8 @@ public class xmvn {
     public transient Project parentPom;
     public transient ProjectContext context;
     public transient AtomicReference<Project> effectivePom;
+    /** Plugin executions of an effective pom grouped by plugin groupId:artifactId, computed once. */
+    public transient Map<String, List<GradleKtsGenerator.PluginExecutionContext>> pluginExecutions;
     /**
      * If the parent dir is a maven project. This could be different than the
      * inheritance parent.
@@ -730,6 +2762,25 @@ public class xmvn {
       return new Plugin();
     }
 
+    /** Shallow copy of the parsed pom without the links owned by a loader session. Parsed content is shared and must stay read only. */
+    public Project copyForSession() {
+      try {
+        Project copy = (Project) super.clone();
+        copy.parentPom = null;
+        copy.context = null;
+        copy.effectivePom = null;
+        copy.pluginExecutions = null;
+        copy.parentDirPom = null;
+        copy.modulesChildren = new ArrayList<>();
+        copy.subprojectsChildren = new ArrayList<>();
+        copy.moduleAgregator = null;
+        copy.subprojectsAgregator = null;
+        return copy;
+      } catch (CloneNotSupportedException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
     public void addSubmodule(xmvn.Project project) {
       if (project == this) {
         throw new IllegalArgumentException("Cannot add self as submodule");
@@ -1415,8 +3466,6 @@ public class xmvn {
 
   public static class GradleKtsGenerator {
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(GradleKtsGenerator.class);
-    private static final Map<String, PluginConvertor> pluginConversionRegistry = new HashMap<>();
-
     // Helper record/class
     public static class PluginConvertor {
       public String name;
@@ -1426,23 +3475,99 @@ public class xmvn {
       // final String pluginDeclaration; // e.g., id("org.javacc.javacc") version
       // "4.0.1"
       public final BiFunction<PluginExecutionContext, Project, String> handler;
+      private final boolean skippable;
 
-      PluginConvertor(String name, String mavenKey, String gradlePluginId, String gradlePluginVersion,
+      PluginConvertor(String name, String mavenKey, String gradlePluginId, String gradlePluginVersion, boolean skippable,
           BiFunction<PluginExecutionContext, Project, String> handler) {
         this.name = name;
         this.mavenGroupAndArtifactId = mavenKey;
         this.gradlePluginId = gradlePluginId;
         this.gradlePluginVersion = gradlePluginVersion;
+        this.skippable = skippable;
         this.handler = handler;
       }
 
       public boolean isEnabled(PluginExecutionContext ctx, Project pom) {
-        return true;
+        return !skippable || ctx.configuration == null || !ctx.configuration.skip();
+      }
+    }
+
+    /** A conversion as written in xmvn-plugins.yaml or a --plugin-rules file. */
+    public static class PluginRule {
+      public String name;
+      /** groupId:artifactId:goal */
+      public String plugin;
+      public String gradlePluginId;
+      public String gradlePluginVersion;
+      public boolean skippable;
+      /** Gradle code added as is. */
+      public String snippet;
+      /** Name of a java handler from {@link GradleKtsGenerator#handlers}. */
+      public String handler;
+    }
+
+    /** Conversions indexed by groupId:artifactId:goal. Immutable once loaded. */
+    public static class PluginConversionRegistry {
+      private final Map<String, PluginConvertor> byKey = new HashMap<>();
+
+      public static PluginConversionRegistry load(List<File> ruleFiles) {
+        PluginConversionRegistry registry = new PluginConversionRegistry();
+        try (InputStream in = GradleKtsGenerator.class.getResourceAsStream("/xmvn-plugins.yaml")) {
+          if (in == null)
+            throw new FileNotFoundException("Resource not found: /xmvn-plugins.yaml");
+          registry.addRules(new ObjectMapper(new com.fasterxml.jackson.dataformat.yaml.YAMLFactory()).readValue(in, PluginRule[].class));
+          for (File file : ruleFiles) {
+            ObjectMapper mapper = file.getName().endsWith(".json") ? new ObjectMapper()
+                : new ObjectMapper(new com.fasterxml.jackson.dataformat.yaml.YAMLFactory());
+            registry.addRules(mapper.readValue(file, PluginRule[].class));
+            log.info("Loaded plugin rules from {}", file);
+          }
+        } catch (IOException e) {
+          throw new RuntimeException("Cannot load plugin conversion rules", e);
+        }
+        return registry;
+      }
+
+      private void addRules(PluginRule[] rules) {
+        for (PluginRule rule : rules) {
+          BiFunction<PluginExecutionContext, Project, String> handler;
+          if (rule.snippet != null) {
+            String snippet = rule.snippet;
+            handler = (ctx, pom) -> snippet;
+          } else {
+            handler = handlers.get(rule.handler);
+            if (handler == null)
+              throw new IllegalArgumentException("Plugin rule " + rule.name + " has no snippet and unknown handler " + rule.handler
+                  + ". Known handlers: " + handlers.keySet());
+          }
+          byKey.put(rule.plugin,
+              new PluginConvertor(rule.name, rule.plugin, rule.gradlePluginId, rule.gradlePluginVersion, rule.skippable, handler));
+        }
+      }
+
+      public PluginConvertor get(String groupArtifactGoal) {
+        return byKey.get(groupArtifactGoal);
       }
     }
 
-    public static void register(PluginConvertor pluginConversion) {
-      pluginConversionRegistry.put(pluginConversion.mavenGroupAndArtifactId, pluginConversion);
+    private static PluginConversionRegistry defaultRegistry;
+
+    /** The bundled rules plus the --plugin-rules of this run, loaded once. */
+    static PluginConversionRegistry registry(ToGradle cli) {
+      synchronized (cli) {
+        if (cli.pluginRegistry == null) {
+          if (cli.pluginRules.isEmpty()) {
+            synchronized (GradleKtsGenerator.class) {
+              if (defaultRegistry == null)
+                defaultRegistry = PluginConversionRegistry.load(List.of());
+              cli.pluginRegistry = defaultRegistry;
+            }
+          } else {
+            cli.pluginRegistry = PluginConversionRegistry.load(cli.pluginRules);
+          }
+        }
+        return cli.pluginRegistry;
+      }
     }
 
     // Data structure for passing plugin execution info (add as static inner class)
@@ -1458,171 +3583,196 @@ public class xmvn {
       }
     }
 
-    static {
-      register(new PluginConvertor("javacc", "org.codehaus.mojo:javacc-maven-plugin:javacc", "org.javacc.javacc", "4.0.1", (ctx, pom) -> """
-          tasks {
-              compileJavacc {
-                  inputDirectory = file("src/main/javacc")
-                  outputDirectory = file(layout.buildDirectory.dir("generated/javacc"))
-                  arguments = mapOf("grammar_encoding" to "UTF-8", "static" to "false")
-              }
+    /** Java handlers for conversions that need more than a snippet, referenced by name from the rules. */
+    private static final Map<String, BiFunction<PluginExecutionContext, Project, String>> handlers = Map.of(
+        "checkstyle", (ctx, pom) -> {
+          if (ctx.configuration == null || ctx.configuration.skip()) {
+            return "//checkstyle skip";
           }
-          sourceSets["main"].java.srcDir(layout.buildDirectory.dir("generated/javacc"))
-          """));
-      register(new PluginConvertor("checkstyle", "org.apache.maven.plugins:maven-checkstyle-plugin:default", "checkstyle", null, (ctx, pom) -> {
-        if (ctx.configuration == null || ctx.configuration.skip()) {
-          return "//checkstyle skip";
-        }
-        java.nio.file.Path configPath = java.nio.file.Paths.get(ctx.configuration.configLocation);
-        if (!java.nio.file.Files.exists(configPath)) {
-          return "//checkstyle config file not found: " + ctx.configuration.configLocation;
-        }
-        return """
-            checkstyle {
-                isIgnoreFailures = %s // Equivalent to <skip>true</skip>
-                configFile = file("%s")
-            }
-            """.formatted(ctx.configuration.skip() ? "true" : "false", ctx.configuration.configLocation);
-      }) {
-        @Override
-        public boolean isEnabled(PluginExecutionContext ctx, Project pom) {
-          return ctx.configuration == null || !ctx.configuration.skip();
-        }
-      });
-      // ...and so on
-      register(new PluginConvertor("testJars", "org.apache.maven.plugins:maven-jar-plugin:test-jar", null, null, (ctx, pom) -> """
-          tasks.register<Jar>("testJar") {
-              archiveClassifier.set("tests")
-              from(sourceSets.test.get().output)
-          }
-          configurations {
-              create("testArtifacts")
-          }
-          artifacts {
-              add("testArtifacts", tasks.named("testJar"))
-          }
-          """));
-      // register(
-      // new PluginConvertor("org.codehaus.mojo:build-helper-maven-plugin:add-source",
-      // null, null, (ctx, pom) -> """
-      // sourceSets {
-      // main {
-      // java {
-      // srcDir("target/generated-sources/javacc")
-      // }
-      // }
-      // }
-      // """));
-      register(new PluginConvertor("antlr", "org.antlr:antlr4-maven-plugin:antlr4", null, null, (ctx, pom) -> {
-        String version = ctx.plugin.version != null ? ctx.plugin.version : "unknown";
-        return """
-            //antlr4 tooling
-            val grammarRoot = file("src/main/antlr4")
-            val outputDir = file("target/generated-sources/antlr4")
-
-            tasks.register("generateGrammarSource") {
-                group = "antlr"
-                description = "Generate ANTLR sources - one invocation per .g4 file with correct working dir"
-
-                doLast {
-                    val files = grammarRoot.walkTopDown()
-                        .filter { it.isFile && it.extension == "g4" }
-                        .toList()
-
-                    files.forEach { g4file ->
-                        val relativePath = g4file.parentFile.relativeTo(grammarRoot).invariantSeparatorsPath
-                        val packageName = if (relativePath.isEmpty()) "" else relativePath.replace('/', '.')
-
-                        javaexec {
-                            workingDir = grammarRoot
-                            classpath = configurations.annotationProcessor.get()
-                            mainClass.set("org.antlr.v4.Tool")
-
-                            val argsList = mutableListOf("-visitor", "-listener", "-o", outputDir.absolutePath)
-                            if (packageName.isNotEmpty()) {
-                                argsList.addAll(listOf("-package", packageName))
-                            }
-                            // Provide grammar path relative to grammarRoot because workingDir is grammarRoot
-                            argsList.add(g4file.relativeTo(grammarRoot).path)
-
-                            args = argsList
-
-                            println("Running ANTLR on ${g4file.relativeTo(file(".")).path} with package: $packageName")
-                        }
-                    }
-                }
-            }
+          java.nio.file.Path configPath = java.nio.file.Paths.get(ctx.configuration.configLocation);
+          if (!java.nio.file.Files.exists(configPath)) {
+            return "//checkstyle config file not found: " + ctx.configuration.configLocation;
+          }
+          return """
+              checkstyle {
+                  isIgnoreFailures = %s // Equivalent to <skip>true</skip>
+                  configFile = file("%s")
+              }
+              """.formatted(ctx.configuration.skip() ? "true" : "false", ctx.configuration.configLocation);
+        },
+        "antlr", (ctx, pom) -> {
+          String version = ctx.plugin.version != null ? ctx.plugin.version : "unknown";
+          return """
+              //antlr4 tooling
+              val grammarRoot = file("src/main/antlr4")
+              val outputDir = file("target/generated-sources/antlr4")
+
+              tasks.register("generateGrammarSource") {
+                  group = "antlr"
+                  description = "Generate ANTLR sources - one invocation per .g4 file with correct working dir"
+
+                  doLast {
+                      val files = grammarRoot.walkTopDown()
+                          .filter { it.isFile && it.extension == "g4" }
+                          .toList()
+
+                      files.forEach { g4file ->
+                          val relativePath = g4file.parentFile.relativeTo(grammarRoot).invariantSeparatorsPath
+                          val packageName = if (relativePath.isEmpty()) "" else relativePath.replace('/', '.')
+
+                          javaexec {
+                              workingDir = grammarRoot
+                              classpath = configurations.annotationProcessor.get()
+                              mainClass.set("org.antlr.v4.Tool")
+
+                              val argsList = mutableListOf("-visitor", "-listener", "-o", outputDir.absolutePath)
+                              if (packageName.isNotEmpty()) {
+                                  argsList.addAll(listOf("-package", packageName))
+                              }
+                              // Provide grammar path relative to grammarRoot because workingDir is grammarRoot
+                              argsList.add(g4file.relativeTo(grammarRoot).path)
 
-            tasks.named("compileJava") {
-                dependsOn("generateGrammarSource")
-            }
+                              args = argsList
+
+                              println("Running ANTLR on ${g4file.relativeTo(file(".")).path} with package: $packageName")
+                          }
+                      }
+                  }
+              }
 
-            sourceSets["main"].java.srcDir(outputDir)
+              tasks.named("compileJava") {
+                  dependsOn("generateGrammarSource")
+              }
 
-            dependencies {
-                implementation("org.antlr:antlr4-runtime:%s")
-                annotationProcessor("org.antlr:antlr4:%s")
-            }
-            """.formatted(version, version);
-      }));
-      register(new PluginConvertor("jaxb", "org.jvnet.jaxb:jaxb-maven-plugin:generate", null, null, (ctx, pom) -> {
-        // resolve ctx.configuration.schemaDirectory relative to pom as path
-        Path schemaDirPath = Paths.get(pom.pomFile.getParent(), ctx.configuration.schemaDirectory).toAbsolutePath();
+              sourceSets["main"].java.srcDir(outputDir)
 
-        // schema directory contains xsd files
-        if (ctx.configuration.schemaDirectory == null || !Files.exists(schemaDirPath)) {
-          return "//jaxb plugin disabled - no schema directory " + schemaDirPath;
-        }
+              dependencies {
+                  implementation("org.antlr:antlr4-runtime:%s")
+                  annotationProcessor("org.antlr:antlr4:%s")
+              }
+              """.formatted(version, version);
+        },
+        "jaxb", (ctx, pom) -> {
+          // resolve ctx.configuration.schemaDirectory relative to pom as path
+          Path schemaDirPath = Paths.get(pom.pomFile.getParent(), ctx.configuration.schemaDirectory).toAbsolutePath();
+
+          // schema directory contains xsd files
+          if (ctx.configuration.schemaDirectory == null || !Files.exists(schemaDirPath)) {
+            return "//jaxb plugin disabled - no schema directory " + schemaDirPath;
+          }
 
-        // check xsd files by walking the directory via Path api
-        try {
-          long count = Files.walk(schemaDirPath).filter(FileSystems.getDefault().getPathMatcher("glob:**/*.xsd")::matches).count();
-          if (count == 0) {
-            return "//jaxb plugin disabled - no xsd files found in " + schemaDirPath;
+          // check xsd files by walking the directory via Path api
+          try {
+            long count = Files.walk(schemaDirPath).filter(FileSystems.getDefault().getPathMatcher("glob:**/*.xsd")::matches).count();
+            if (count == 0) {
+              return "//jaxb plugin disabled - no xsd files found in " + schemaDirPath;
+            }
+          } catch (IOException e) {
+            throw new RuntimeException("Error checking xsd files in " + schemaDirPath, e);
           }
-        } catch (IOException e) {
-          throw new RuntimeException("Error checking xsd files in " + schemaDirPath, e);
-        }
-        return jbangAndXjcPlugin.formatted("0.128.7", "4.0.5", ctx.configuration.generatePackage,
-            // linuxPath(ctx.configuration.generateDirectory),
-            linuxPath(ctx.configuration.schemaDirectory));
-      }));
-    }
+          return jbangAndXjcPlugin.formatted("0.128.7", "4.0.5", ctx.configuration.generatePackage,
+              // linuxPath(ctx.configuration.generateDirectory),
+              linuxPath(ctx.configuration.schemaDirectory));
+        });
 
     private static String linuxPath(String dir) {
       return dir.replace('\\', '/').replaceAll("/$", "");
     }
 
     public static Integer sync(ToGradle cli) throws Exception {
+      sync(new PomLoaderSession(cli));
+      return 0;
+    }
+
+    public static Project sync(PomLoaderSession session) throws IOException {
       log.info("Sync ...");
-      Project rootPom = PomLoader.loadRootPom(cli);
+      Project rootPom = session.loadRootPom();
       generateGradle(rootPom);
       log.info("Sync done.");
-      return 0;
+      ToGradle cli = (ToGradle) session.cli;
+      if (cli.profile) {
+        session.profile.printTable(System.out);
+        Path json = rootPom.pomFile.getParentFile().toPath().resolve("target/xmvn-profile.json");
+        Files.createDirectories(json.getParent());
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(json.toFile(), session.profile.toJson());
+        log.info("Profile written to {}", json);
+      }
+      return rootPom;
     }
 
     private static void generateGradle(Project rootPom) throws IOException {
       ToGradle cli2 = (xmvn.ToGradle) rootPom.context.cli;
+      PipelineProfile profile = rootPom.context.session.profile;
+      long t = System.nanoTime();
       // At top-level in sync
-      GradleModules gradleModules = collectModuleArtifactIdToGradlePath(rootPom, cli2.projectDir, cli2.ignoreUnknown, rootPom.context.effectivePom);
+      GradleModules gradleModules = GradleModules.index(rootPom);
+      t = profile.phase("5. index modules", t);
+      if (cli2.versionCatalog) {
+        if (cli2.inlineVersions)
+          throw new IllegalArgumentException("Cannot use both --inline-versions and --version-catalog at the same time.");
+        gradleModules.versionCatalog = new VersionCatalog();
+      }
+      Path projectDir = cli2.projectDir.toPath();
+      if (cli2.conventionPlugin) {
+        generateConventionPlugin(rootPom, cli2, gradleModules);
+        t = profile.phase("6. convention plugin", t);
+      } else {
+        removeGenerated(projectDir.resolve(CONVENTION_PLUGIN_FILE), CONVENTION_PLUGIN_HEADER, projectDir.resolve("buildSrc"));
+      }
+      if (!cli2.versionCatalog)
+        removeGenerated(projectDir.resolve(VERSION_CATALOG_FILE), VERSION_CATALOG_HEADER, projectDir.resolve(VERSION_CATALOG_FILE));
 
       // Generate settings.gradle.kts for root project and modules
-      String settingsGradle = generateSettingsGradleKts(rootPom);
+      String settingsGradle = generateSettingsGradleKts(rootPom, gradleModules);
       Files.writeString(cli2.projectDir.toPath().resolve("settings.gradle.kts"), settingsGradle);
       log.info("Generated settings.gradle.kts");
+      t = profile.phase("7. settings.gradle.kts", t);
 
       // Generate build.gradle.kts recursively for root and modules
       generateForModulesRecursively(cli2.projectDir.toPath(), rootPom, cli2, rootPom.context.effectivePom, gradleModules, true);
+      t = profile.phase("8. build.gradle.kts for all modules", t);
+
+      if (gradleModules.versionCatalog != null) {
+        Path catalog = projectDir.resolve(VERSION_CATALOG_FILE);
+        Files.createDirectories(catalog.getParent());
+        Files.writeString(catalog, gradleModules.versionCatalog.toToml());
+        log.info("Generated {} with {} versions and {} libraries", catalog, gradleModules.versionCatalog.versions.size(),
+            gradleModules.versionCatalog.libraries.size());
+        profile.phase("9. version catalog", t);
+      }
+    }
+
+    static final String CONVENTION_PLUGIN_FILE = "buildSrc/src/main/kotlin/xmvn.java-conventions.gradle.kts";
+    static final String CONVENTION_PLUGIN_HEADER = "// Generated by xmvn 2gradle --convention-plugin";
+    static final String VERSION_CATALOG_FILE = "gradle/libs.versions.toml";
+    static final String VERSION_CATALOG_HEADER = "# Generated by xmvn 2gradle --version-catalog";
+
+    /**
+     * Deletes {@code target} when {@code marker} was written by an earlier run with an option that is now off: a stale buildSrc or
+     * catalog would still be picked up by gradle. Files without the header are the user's and stay.
+     */
+    static void removeGenerated(Path marker, String header, Path target) throws IOException {
+      if (!Files.isRegularFile(marker))
+        return;
+      try (var lines = Files.lines(marker)) {
+        if (!lines.findFirst().orElse("").startsWith(header)) {
+          log.warn("Keeping {}: not generated by xmvn", marker);
+          return;
+        }
+      }
+      try (var files = Files.walk(target)) {
+        for (Path file : files.sorted(Comparator.reverseOrder()).toList())
+          Files.delete(file);
+      }
+      log.info("Deleted {} generated by an earlier run, its option is off", target);
     }
 
-    public static String generateSettingsGradleKts(Project rootPom) {
-      File rootDir = rootPom.context.cli.projectDir;
+    public static String generateSettingsGradleKts(Project rootPom, GradleModules gradleModules) {
       String rootName = rootPom.artifactId != null ? rootPom.artifactId : "rootProject";
-      List<String> includes = collectAllModulePaths(rootPom, "", rootDir);
+      List<String> includes = gradleModules.paths();
 
       String includesStr = StreamEx.of(includes).map(m -> "include(\"" + m + "\")").joining("\n");
-      String mirrorsRepositoriesBlock = generateGradleRepositoriesFromMirrors(
-          readMavenSettings(new File(System.getProperty("user.home"), ".m2/settings.xml")));
+      String mirrorsRepositoriesBlock = generateGradleRepositoriesFromSettings(MvnSettings.current());
       return """
           rootProject.name = "%s"
           dependencyResolutionManagement {
@@ -1732,79 +3882,41 @@ public class xmvn {
                   println("==== ${repo.name} (${repo.javaClass.simpleName}) ====")
                   repo.javaClass.methods
                       .filter {
-                          it.name.startsWith("get") &&
-                          it.parameterCount == 0 &&
-                          it.name !in ignoreProperties
-                      }
-                      .forEach { method ->
-                          try {
-                              println("  ${method.name}: ${method.invoke(repo)}")
-                          } catch (e: Throwable) {
-                            throw RuntimeException("Error on calling ${method.name}:", e)
-                          }
-                      }
-                  println()
-              }
-          }
-          """;
-      return debugRepositories;
-    }
-
-    public static class MvnSettings {
-      public Mirrors mirrors;
-
-      public static class Mirrors {
-        @JacksonXmlElementWrapper(useWrapping = false)
-        public List<Mirror> mirror;
-      }
-
-      public static class Mirror {
-        public String id;
-        public String mirrorOf;
-        public String url;
-      }
-    }
-
-    public static MvnSettings readMavenSettings(File settingsXml) {
-      try {
-        XmlMapper xmlMapper = new XmlMapper();
-        xmlMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-        return xmlMapper.readValue(settingsXml, MvnSettings.class);
-      } catch (IOException e) {
-        throw new RuntimeException("Failed to read Maven settings.xml: " + settingsXml.getAbsolutePath(), e);
-      }
-    }
-
-    public static String generateGradleRepositoriesFromMirrors(MvnSettings settings) {
-      if (settings == null || settings.mirrors == null || settings.mirrors.mirror == null)
-        return "";
-
-      return StreamEx.of(settings.mirrors.mirror).map(m -> """
-          maven {
-              name = "%s"
-              url = uri("%s")
+                          it.name.startsWith("get") &&
+                          it.parameterCount == 0 &&
+                          it.name !in ignoreProperties
+                      }
+                      .forEach { method ->
+                          try {
+                              println("  ${method.name}: ${method.invoke(repo)}")
+                          } catch (e: Throwable) {
+                            throw RuntimeException("Error on calling ${method.name}:", e)
+                          }
+                      }
+                  println()
+              }
           }
-          """.formatted(m.id, m.url)).joining("\n");
+          """;
+      return debugRepositories;
     }
 
-    // TODO refactor to use pom structure
-    private static List<String> collectAllModulePaths(Project pom, String parentPath, File baseDir) {
-      if (pom.modules == null || pom.modules.modules == null || pom.modules.modules.isEmpty()) {
-        return List.of();
-      }
-      return StreamEx.of(pom.modules.modules).flatMap(moduleName -> {
-        String fullPath = parentPath.isEmpty() ? moduleName : parentPath + ":" + moduleName;
-        File moduleDir = baseDir.toPath().resolve(moduleName).toFile();
-        Project childPom = PomLoader.loadPom(null, null, moduleDir, pom.context);
-        List<String> nested = childPom != null ? collectAllModulePaths(childPom, fullPath, moduleDir) : List.of();
-        return StreamEx.of(fullPath).append(nested);
-      }).toList();
+    /** Mirrors first, then the repositories of the active settings profiles. */
+    public static String generateGradleRepositoriesFromSettings(MvnSettings settings) {
+      return StreamEx.of(settings.mirrors()).map(m -> new String[] { m.id, m.url })
+          .append(StreamEx.of(settings.activeRepositories()).map(r -> new String[] { r.id, r.url }))
+          .distinct(r -> r[1])
+          .map(r -> """
+              maven {
+                  name = "%s"
+                  url = uri("%s")
+              }
+              """.formatted(r[0], r[1])).joining("\n");
     }
 
-    // TODO refactor to use pom structure
     private static void generateForModulesRecursively(Path baseDir, Project pom, ToGradle cli, Projects effectivePom, GradleModules gradleModules,
         boolean isRoot) {
       log.info("Generating build.gradle.kts for {}", pom.artifactId);
+      long started = System.nanoTime();
 
       String gradleKts = generate(pom, effectivePom, gradleModules, cli);
 
@@ -1813,17 +3925,11 @@ public class xmvn {
       } catch (IOException e) {
         throw new RuntimeException("Failed to write build.gradle.kts for " + pom.artifactId, e);
       }
+      pom.context.session.profile.module(pom.ga(), System.nanoTime() - started);
 
-      if (pom.modules != null && pom.modules.modules != null) {
-        for (String moduleName : pom.modules.modules) {
-          Path moduleDir = baseDir.resolve(moduleName);
-          if (Files.exists(moduleDir)) {
-            Project modulePom = PomLoader.loadPom(null, null, moduleDir.toFile(), pom.context);
-            generateForModulesRecursively(moduleDir, modulePom, cli, effectivePom, gradleModules, false);
-          } else {
-            log.warn("Module directory not found: {}", moduleDir);
-          }
-        }
+      for (GradleModules.Module module : gradleModules.children(pom)) {
+        if (module.project != null)
+          generateForModulesRecursively(module.dir, module.project, cli, effectivePom, gradleModules, false);
       }
       deleteAndWarnIfSettingsGradleKtsExists(baseDir, isRoot);
     }
@@ -1883,88 +3989,55 @@ public class xmvn {
             %s
           }
           """.formatted(prefixLines(generateExcludesBlock(excludes), "", "  ")) : "";
+      if (cli.conventionPlugin) {
+        String javaBlock = gradleModules.conventionJavaVersion != null ? "" : "\n" + JAVA_VERSION_BLOCK.formatted(javaVersion, javaVersion);
+        return """
+            %s
+            %s
+
+            plugins {
+                id("xmvn.java-conventions")
+            %s
+            }
+            %s
+            group = "%s"
+            version = "%s"
+
+            dependencies {
+            %s
+            }
+
+            %s
+            %s
+            """.formatted(gradlePropertyBlock, depResult.variableBlock, pluginsBlock, javaBlock, group, version, depResult.dependencyBlock,
+            pluginConfigSnippets, excludesBlock);
+      }
       return String.format("""
           %s
           %s
 
           plugins {
-              id("java")
-              id("java-library") //allows api dependencies
-              id("eclipse")
-              id("com.vanniktech.dependency.graph.generator") version "0.8.0"
-              id ("project-report")
+          %s
           %s
           }
 
-          java {
-              sourceCompatibility = JavaVersion.toVersion("%s")
-              targetCompatibility = JavaVersion.toVersion("%s")
-          }
-
+          %s
           group = "%s"
           version = "%s"
           layout.buildDirectory.set(file("$projectDir/target/gradle"))
 
           %s
 
-          tasks.withType<JavaCompile> {
-              //-Xlint:unchecked can be configured with -P-GCompiler-Xlint:unchecked -P-GCompiler-nowarn
-              project.properties.keys
-                  .filter { it.toString().startsWith("-GCompiler") }
-                  .forEach { key ->
-                      val arg = key.toString().removePrefix("-GCompiler")
-                      logger.info("Adding compiler arg: $arg")
-                      options.compilerArgs.add(arg)
-                  }
-              options.encoding = "UTF-8"
-              destinationDirectory.set(
-                  layout.buildDirectory.dir(
-                      "classes/java/" + if (name.contains("Test", ignoreCase = true)) "test" else "main"
-                  )
-              )
-          }
-          eclipse {
-              classpath {
-                  defaultOutputDir = layout.buildDirectory.dir("eclipse/classes/java/main").get().asFile
-                  file {
-                      whenMerged {
-                          val entries = (this as org.gradle.plugins.ide.eclipse.model.Classpath).entries
-                          entries.filterIsInstance<org.gradle.plugins.ide.eclipse.model.ProjectDependency>()
-                              .forEach { it.entryAttributes["without_test_code"] = "false" }
-                          entries.filterIsInstance<org.gradle.plugins.ide.eclipse.model.SourceFolder>()
-                              .filter { it.path.startsWith("/") }
-                              .forEach { it.entryAttributes["without_test_code"] = "false" }
-                      }
-                      withXml {
-                        val node = asNode()
-                        node.appendNode("classpathentry", mapOf(
-                            "kind" to "src",
-                            "path" to "target/gradle/generated/javacc"
-                        ))
-                     }
-                  }
-              }
-          }
-
+          %s
           dependencies {
           %s
           }
 
-          //Force declared dependencies to be used. Gradle would use the maximum version and that is not compatible with maven
-          val forcedDeps = configurations
-            .flatMap { it.dependencies }
-            .filter { it.version != null }
-            .map { "${it.group}:${it.name}:${it.version}" }
-            .distinct()
-          configurations.all {
-            resolutionStrategy {
-              force(forcedDeps)
-            }
-          }
-
           %s
           %s
-          """, gradlePropertyBlock, depResult.variableBlock, pluginsBlock, javaVersion, javaVersion, group, version, "", // do
+          %s
+          """, gradlePropertyBlock, depResult.variableBlock, CONVENTION_PLUGINS, pluginsBlock, JAVA_VERSION_BLOCK.formatted(javaVersion, javaVersion),
+          group, version, "", // do
           // not
           // render
           // local
@@ -1975,7 +4048,140 @@ public class xmvn {
           // in
           // settings
           // repositories("")
-          depResult.dependencyBlock, pluginConfigSnippets, excludesBlock);
+          COMPILE_AND_ECLIPSE_CONFIG, depResult.dependencyBlock, FORCE_DECLARED_VERSIONS, pluginConfigSnippets,
+          excludesBlock);
+    }
+
+    /** Plugins applied by every module, with their version when they don't come with gradle. */
+    private static final String CONVENTION_PLUGINS = """
+            id("java")
+            id("java-library") //allows api dependencies
+            id("eclipse")
+            id("com.vanniktech.dependency.graph.generator") version "0.8.0"
+            id ("project-report")
+        """.stripTrailing();
+
+    /** A plugin line of {@link #CONVENTION_PLUGINS} that carries a version. */
+    private static final java.util.regex.Pattern VERSIONED_PLUGIN = java.util.regex.Pattern.compile("id\\s*\\(\"([^\"]+)\"\\) version \"([^\"]+)\"");
+
+    private static final String JAVA_VERSION_BLOCK = """
+        java {
+            sourceCompatibility = JavaVersion.toVersion("%s")
+            targetCompatibility = JavaVersion.toVersion("%s")
+        }
+        """;
+
+    private static final String COMPILE_AND_ECLIPSE_CONFIG = """
+        tasks.withType<JavaCompile> {
+            //-Xlint:unchecked can be configured with -P-GCompiler-Xlint:unchecked -P-GCompiler-nowarn
+            project.properties.keys
+                .filter { it.toString().startsWith("-GCompiler") }
+                .forEach { key ->
+                    val arg = key.toString().removePrefix("-GCompiler")
+                    logger.info("Adding compiler arg: $arg")
+                    options.compilerArgs.add(arg)
+                }
+            options.encoding = "UTF-8"
+            destinationDirectory.set(
+                layout.buildDirectory.dir(
+                    "classes/java/" + if (name.contains("Test", ignoreCase = true)) "test" else "main"
+                )
+            )
+        }
+        eclipse {
+            classpath {
+                defaultOutputDir = layout.buildDirectory.dir("eclipse/classes/java/main").get().asFile
+                file {
+                    whenMerged {
+                        val entries = (this as org.gradle.plugins.ide.eclipse.model.Classpath).entries
+                        entries.filterIsInstance<org.gradle.plugins.ide.eclipse.model.ProjectDependency>()
+                            .forEach { it.entryAttributes["without_test_code"] = "false" }
+                        entries.filterIsInstance<org.gradle.plugins.ide.eclipse.model.SourceFolder>()
+                            .filter { it.path.startsWith("/") }
+                            .forEach { it.entryAttributes["without_test_code"] = "false" }
+                    }
+                    withXml {
+                      val node = asNode()
+                      node.appendNode("classpathentry", mapOf(
+                          "kind" to "src",
+                          "path" to "target/gradle/generated/javacc"
+                      ))
+                   }
+                }
+            }
+        }
+        """;
+
+    private static final String FORCE_DECLARED_VERSIONS = """
+        //Force declared dependencies to be used. Gradle would use the maximum version and that is not compatible with maven
+        val forcedDeps = configurations
+          .flatMap { it.dependencies }
+          .filter { it.version != null }
+          .map { "${it.group}:${it.name}:${it.version}" }
+          .distinct()
+        configurations.all {
+          resolutionStrategy {
+            force(forcedDeps)
+          }
+        }
+        """;
+
+    /**
+     * Writes buildSrc with the xmvn.java-conventions precompiled script plugin: the plugins, compile/eclipse configuration and forced versions
+     * that xmvn writes identically into every module script, plus the java version when all modules agree on it. The java version is the only
+     * module specific setting compared across modules, the rest (lombok, plugin configurations, excludes) stays in the modules. Kotlin
+     * scripts are compiled once here instead of once per module.
+     */
+    private static void generateConventionPlugin(Project rootPom, ToGradle cli, GradleModules gradleModules) throws IOException {
+      Set<String> javaVersions = StreamEx.ofTree(rootPom, p -> StreamEx.of(p.children()))
+          .map(p -> extractJavaVersionFromEffectivePom(p, cli))
+          .toCollection(TreeSet::new);
+      gradleModules.conventionJavaVersion = javaVersions.size() == 1 ? javaVersions.iterator().next() : null;
+      log.info("Java versions of modules: {}{}", javaVersions, gradleModules.conventionJavaVersion != null ? " - declared in convention plugin" : "");
+
+      List<String> buildSrcDependencies = new ArrayList<>();
+      String plugins = StreamEx.of(CONVENTION_PLUGINS.lines()).map(line -> {
+        java.util.regex.Matcher m = VERSIONED_PLUGIN.matcher(line);
+        if (!m.find())
+          return line;
+        // a precompiled script plugin cannot declare versions: the plugin marker goes on the buildSrc classpath instead
+        buildSrcDependencies.add("    implementation(\"%s:%s.gradle.plugin:%s\")".formatted(m.group(1), m.group(1), m.group(2)));
+        return line.substring(0, m.start()) + "id(\"" + m.group(1) + "\")";
+      }).joining("\n");
+
+      Path buildSrc = cli.projectDir.toPath().resolve("buildSrc");
+      Path conventions = cli.projectDir.toPath().resolve(CONVENTION_PLUGIN_FILE);
+      Files.createDirectories(conventions.getParent());
+      Files.writeString(buildSrc.resolve("build.gradle.kts"), """
+          plugins {
+              `kotlin-dsl`
+          }
+
+          %s
+          dependencies {
+          %s
+          }
+          """.formatted(repositories(generateGradleRepositoriesFromSettings(MvnSettings.current()) + "\ngradlePluginPortal()"),
+          String.join("\n", buildSrcDependencies)));
+      Files.writeString(conventions, """
+          %s: configuration shared by all modules
+          plugins {
+          %s
+          }
+
+          %s
+          layout.buildDirectory.set(file("$projectDir/target/gradle"))
+
+          %s
+          // The module dependencies are declared after this plugin is applied
+          afterEvaluate {
+          %s}
+          """.formatted(CONVENTION_PLUGIN_HEADER, plugins,
+          gradleModules.conventionJavaVersion != null
+              ? JAVA_VERSION_BLOCK.formatted(gradleModules.conventionJavaVersion, gradleModules.conventionJavaVersion)
+              : "",
+          COMPILE_AND_ECLIPSE_CONFIG, FORCE_DECLARED_VERSIONS.indent(2)));
+      log.info("Generated convention plugin {}", conventions);
     }
 
     public static String generateExcludesBlock(List<String> excludes) {
@@ -2108,24 +4314,151 @@ public class xmvn {
     // }
     // }
 
+    /**
+     * Module topology of the reactor, built in a single walk of the modules: groupId:artifactId to gradle path, the gradle paths and
+     * aggregator to its modules. The topology is immutable and shared by all generators. {@link #versionCatalog} and
+     * {@link #conventionJavaVersion} are not part of it: they are per-sync generation state, set by generateGradle before the modules are
+     * generated (the catalog then collects their libraries).
+     */
     static class GradleModules {
-      Map<String, String> modules = new TreeMap<>();
+      public static class Module {
+        public final String name;
+        public final String gradlePath;
+        public final Path dir;
+        /** null when the module directory has no pom */
+        public final Project project;
+
+        Module(String name, String gradlePath, Path dir, Project project) {
+          this.name = name;
+          this.gradlePath = gradlePath;
+          this.dir = dir;
+          this.project = project;
+        }
+      }
+
+      private final Map<String, String> modules;
+      private final List<String> paths;
+      private final Map<Project, List<Module>> children;
+      /** Shared by all modules of the sync when --version-catalog is used. */
+      VersionCatalog versionCatalog;
+      /** Java version of all modules when --convention-plugin is used and they agree, declared once in the convention plugin. */
+      String conventionJavaVersion;
+
+      private GradleModules(Map<String, String> modules, List<String> paths, Map<Project, List<Module>> children) {
+        this.modules = java.util.Collections.unmodifiableMap(modules);
+        this.paths = java.util.Collections.unmodifiableList(paths);
+        this.children = java.util.Collections.unmodifiableMap(children);
+      }
+
+      static GradleModules index(Project rootPom) {
+        Map<String, String> modules = new HashMap<>();
+        List<String> paths = new ArrayList<>();
+        Map<Project, List<Module>> children = new java.util.IdentityHashMap<>();
+        java.util.Deque<Module> todo = new java.util.ArrayDeque<>();
+        todo.push(new Module("", "", rootPom.pomFile.getParentFile().toPath(), rootPom));
+        while (!todo.isEmpty()) {
+          Module parent = todo.pop();
+          Project pom = parent.project;
+          if (!parent.gradlePath.isEmpty())
+            paths.add(parent.gradlePath);
+          if (pom == null || pom.modules == null || pom.modules.modules == null)
+            continue;
+          List<Module> modulesOfParent = new ArrayList<>();
+          for (String moduleName : pom.modules.modules) {
+            String gradlePath = parent.gradlePath.isEmpty() ? moduleName : parent.gradlePath + ":" + moduleName;
+            Path dir = parent.dir.resolve(moduleName);
+            Project childPom = rootPom.context.session.loadPom(rootPom, pom, dir.toFile());
+            if (childPom != null && childPom.artifactId != null) {
+              String existing = modules.putIfAbsent(childPom.ga(), gradlePath);
+              if (existing != null)
+                throw new RuntimeException("Gradle module " + childPom.ga() + " already exists for " + existing + ". Overwriting with " + gradlePath);
+            } else if (!Files.exists(dir)) {
+              log.warn("Module directory not found: {}", dir);
+            }
+            modulesOfParent.add(new Module(moduleName, gradlePath, dir, childPom));
+          }
+          children.put(pom, java.util.Collections.unmodifiableList(modulesOfParent));
+          // depth first, in declaration order
+          for (int i = modulesOfParent.size() - 1; i >= 0; i--)
+            todo.push(modulesOfParent.get(i));
+        }
+        return new GradleModules(modules, paths, children);
+      }
 
       public String findByMavenGroupAndArtifact(String resolvedGroupId, String resolvedArtifactId) {
-        String ga = resolvedGroupId + ":" + resolvedArtifactId;
-        return modules.get(ga);
+        return modules.get(resolvedGroupId + ":" + resolvedArtifactId);
+      }
+
+      /** All gradle module paths, depth first in declaration order (the settings.gradle.kts includes). */
+      public List<String> paths() {
+        return paths;
       }
 
-      public void addGradleModule(String ga, String gradlePath) {
-        if (modules.containsKey(ga)) {
-          log.warn("Gradle module {} already exists for {}. Overwriting with {}", ga, modules.get(ga), gradlePath);
-          throw new RuntimeException("Gradle module " + ga + " already exists for " + modules.get(ga) + ". Overwriting with " + gradlePath);
+      public List<Module> children(Project aggregator) {
+        return children.getOrDefault(aggregator, List.of());
+      }
+    }
+
+    /**
+     * The gradle/libs.versions.toml of one sync. Versions are deduplicated per group (a group whose artifacts share a version gets a single
+     * entry) and libraries per coordinate. Aliases are flat camelCase (orgSlf4jSlf4jApi) so accessors never clash with nested groups.
+     */
+    static class VersionCatalog {
+      final Map<String, String> versions = new TreeMap<>();
+      final Map<String, String> libraries = new TreeMap<>();
+      private final Map<String, String> versionAliases = new HashMap<>();
+      private final Map<String, String> libraryAliases = new HashMap<>();
+
+      /** Alias of the version, to be used as libs.versions.<alias>.get() */
+      String version(String groupId, String version) {
+        return versionAliases.computeIfAbsent(groupId + ":" + version, k -> {
+          String alias = uniqueAlias(versions, alias(groupId), version);
+          versions.put(alias, version);
+          return alias;
+        });
+      }
+
+      /** Alias of the library, to be used as libs.<alias> */
+      String library(String groupId, String artifactId, String version) {
+        return libraryAliases.computeIfAbsent(groupId + ":" + artifactId + ":" + version, k -> {
+          String versionAlias = version(groupId, version);
+          String alias = uniqueAlias(libraries, alias(groupId + "." + artifactId), version);
+          libraries.put(alias, "{ module = \"%s:%s\", version.ref = \"%s\" }".formatted(groupId, artifactId, versionAlias));
+          return alias;
+        });
+      }
+
+      private static String uniqueAlias(Map<String, String> taken, String base, String version) {
+        if (!taken.containsKey(base))
+          return base;
+        String alias = base + "V" + Character.toUpperCase(alias(version).charAt(0)) + alias(version).substring(1);
+        for (int i = 2; taken.containsKey(alias); i++)
+          alias = base + "V" + i;
+        return alias;
+      }
+
+      static String alias(String value) {
+        StringBuilder sb = new StringBuilder();
+        for (String token : value.split("[^a-zA-Z0-9]+")) {
+          if (token.isEmpty())
+            continue;
+          sb.append(sb.isEmpty() ? Character.toLowerCase(token.charAt(0)) : Character.toUpperCase(token.charAt(0))).append(token.substring(1));
         }
-        modules.put(ga, gradlePath);
+        if (sb.isEmpty() || !Character.isLetter(sb.charAt(0)))
+          sb.insert(0, 'v');
+        return sb.toString();
+      }
+
+      String toToml() {
+        StringBuilder sb = new StringBuilder(VERSION_CATALOG_HEADER + "\n\n[versions]\n");
+        versions.forEach((alias, version) -> sb.append("%s = \"%s\"\n".formatted(alias, version.replace("\\", "\\\\").replace("\"", "\\\""))));
+        sb.append("\n[libraries]\n");
+        libraries.forEach((alias, library) -> sb.append(alias).append(" = ").append(library).append('\n'));
+        return sb.toString();
       }
     }
 
-    private static DependencyEmitResult emitDeps(Project pom, Projects effectivePom, GradleModules gradleModules, ToGradle cli) {
+    static DependencyEmitResult emitDeps(Project pom, Projects effectivePom, GradleModules gradleModules, ToGradle cli) {
       pom = pom.effectivePomOrThis();
 
       if (pom.dependencies == null || pom.dependencies.dependency == null) {
@@ -2170,7 +4503,6 @@ public class xmvn {
           } else {
             deps.append(String.format("    %s(project(\":%s\"))\n", conf, gradlePath));
           }
-          var searchAgain = gradleModules.findByMavenGroupAndArtifact(resolvedGroupId, resolvedArtifactId);
           continue;
         }
         // ---- Lombok special case ----
@@ -2214,7 +4546,18 @@ public class xmvn {
         }
 
         String versionExpr;
-        if (cli.inlineVersions) {
+        String classifierPart = (dep.classifier != null && !dep.classifier.isBlank()) ? ":" + dep.classifier : "";
+        String typePart = (dep.type != null && !dep.type.isBlank() && !"jar".equals(dep.type)) ? "@" + dep.type : "";
+        String libraryAlias = null;
+        if (gradleModules.versionCatalog != null) {
+          if (classifierPart.isEmpty() && typePart.isEmpty()) {
+            libraryAlias = gradleModules.versionCatalog.library(resolvedGroupId, resolvedArtifactId, finalVersion);
+            versionExpr = "libs." + libraryAlias;
+          } else {
+            // catalog libraries have no classifier/type, so only the version comes from the catalog
+            versionExpr = "${libs.versions." + gradleModules.versionCatalog.version(resolvedGroupId, finalVersion) + ".get()}";
+          }
+        } else if (cli.inlineVersions) {
           versionExpr = finalVersion;
         } else {
           String varName = createVersionPropertyName(dep, resolvedGroupId, resolvedArtifactId);
@@ -2223,26 +4566,24 @@ public class xmvn {
         }
         log.info("Adding dependency: {} {}:{}:{}", conf, resolvedGroupId, resolvedArtifactId, versionExpr);
 
-        String depCoordinate = String.format("%s:%s:%s", resolvedGroupId, resolvedArtifactId, versionExpr);
-        String classifierPart = (dep.classifier != null && !dep.classifier.isBlank()) ? ":" + dep.classifier : "";
-        String typePart = (dep.type != null && !dep.type.isBlank() && !"jar".equals(dep.type)) ? "@" + dep.type : "";
-        depCoordinate += classifierPart + typePart;
+        String depCoordinate = libraryAlias != null ? "libs." + libraryAlias
+            : "\"" + String.format("%s:%s:%s", resolvedGroupId, resolvedArtifactId, versionExpr) + classifierPart + typePart + "\"";
 
         // Exclusions
         if (dep.exclusions != null && dep.exclusions.exclusion != null && !dep.exclusions.exclusion.isEmpty()) {
           if (GRADLE_COMPILE_ONLY_PLUS_TEST_IMPLEMENTATION.equals(conf)) {
-            deps.append(String.format("    compileOnly(\"%s\") {\n", depCoordinate));
+            deps.append(String.format("    compileOnly(%s) {\n", depCoordinate));
             for (Exclusion excl : dep.exclusions.exclusion) {
               deps.append(String.format("        exclude(group = \"%s\", module = \"%s\")\n", excl.groupId, excl.artifactId));
             }
             deps.append("    }\n");
-            deps.append(String.format("    testImplementation(\"%s\") {\n", depCoordinate));
+            deps.append(String.format("    testImplementation(%s) {\n", depCoordinate));
             for (Exclusion excl : dep.exclusions.exclusion) {
               deps.append(String.format("        exclude(group = \"%s\", module = \"%s\")\n", excl.groupId, excl.artifactId));
             }
             deps.append("    }\n");
           } else {
-            deps.append(String.format("    %s(\"%s\") {\n", conf, depCoordinate));
+            deps.append(String.format("    %s(%s) {\n", conf, depCoordinate));
             for (Exclusion excl : dep.exclusions.exclusion) {
               deps.append(String.format("        exclude(group = \"%s\", module = \"%s\")\n", excl.groupId, excl.artifactId));
             }
@@ -2250,10 +4591,10 @@ public class xmvn {
           }
         } else {
           if (GRADLE_COMPILE_ONLY_PLUS_TEST_IMPLEMENTATION.equals(conf)) {
-            deps.append(String.format("    compileOnly(\"%s\")\n", depCoordinate));
-            deps.append(String.format("    testImplementation(\"%s\")\n", depCoordinate));
+            deps.append(String.format("    compileOnly(%s)\n", depCoordinate));
+            deps.append(String.format("    testImplementation(%s)\n", depCoordinate));
           } else {
-            deps.append(String.format("    %s(\"%s\")\n", conf, depCoordinate));
+            deps.append(String.format("    %s(%s)\n", conf, depCoordinate));
           }
         }
       }
@@ -2305,28 +4646,6 @@ public class xmvn {
       return varName;
     }
 
-    private static GradleModules collectModuleArtifactIdToGradlePath(Project rootPom, File rootDir, boolean ignoreUnknown, Projects effectivePom) {
-      GradleModules gradleModules = new GradleModules();
-      collectModulesRecursivelyWithPaths(rootPom, rootPom, rootDir, "", gradleModules);
-      return gradleModules;
-    }
-
-    private static void collectModulesRecursivelyWithPaths(Project root, Project pom, File baseDir, String parentGradlePath,
-        GradleModules gradleModules) {
-      if (pom == null || pom.modules == null || pom.modules.modules == null)
-        return;
-
-      for (String moduleName : pom.modules.modules) {
-        File moduleDir = new File(baseDir, moduleName);
-        Project childPom = PomLoader.loadPom(root, pom, moduleDir, root.context);
-        if (childPom != null && childPom.artifactId != null) {
-          String fullPath = parentGradlePath.isEmpty() ? moduleName : parentGradlePath + ":" + moduleName;
-          gradleModules.addGradleModule(childPom.ga(), fullPath);
-          collectModulesRecursivelyWithPaths(root, childPom, moduleDir, fullPath, gradleModules);
-        }
-      }
-    }
-
     private static Map<String, String> collectGradlePluginsAndConfigs(Project pom, StringBuilder pluginConfigSnippets, xmvn.ToGradle cli) {
       Map<String, String> pluginsMap = new LinkedHashMap<>();
       Set<String> visited = new HashSet<>(); // to avoid duplicates when traversing parents
@@ -2355,16 +4674,27 @@ public class xmvn {
       if (pom.build == null || pom.build.plugins == null || pom.build.plugins.plugin == null)
         return;
 
-      for (Plugin plugin : pom.build.plugins.plugin) {
-        String pluginUniqueKey = plugin.getEffectiveGroupId() + ":" + plugin.artifactId;
-        if (!visited.add(pluginUniqueKey))
+      Map<String, List<PluginExecutionContext>> executionsByPlugin;
+      if (pom.effectivePom() != null) {
+        executionsByPlugin = effectivePluginExecutions(pom.effectivePom());
+      } else {
+        executionsByPlugin = new LinkedHashMap<>();
+        for (Plugin plugin : pom.build.plugins.plugin) {
+          executionsByPlugin.computeIfAbsent(plugin.getEffectiveGroupId() + ":" + plugin.artifactId, k -> {
+            List<PluginExecutionContext> result = new ArrayList<>();
+            collectPluginExecutionsRecursive(plugin, pom, result, new HashSet<>());
+            return result;
+          });
+        }
+      }
+      for (Map.Entry<String, List<PluginExecutionContext>> entry : executionsByPlugin.entrySet()) {
+        if (!visited.add(entry.getKey()))
           continue;
 
-        List<PluginExecutionContext> execs = getPluginExecutions(plugin, pom);
-        for (PluginExecutionContext ctx : execs) {
+        for (PluginExecutionContext ctx : entry.getValue()) {
           String pluginKey = ctx.plugin.getEffectiveGroupId() + ":" + ctx.plugin.artifactId + ":" + ctx.goal;
           log.info("Processing plugin execution: {}", pluginKey);
-          PluginConvertor conv = pluginConversionRegistry.get(pluginKey);
+          PluginConvertor conv = registry((ToGradle) pom.context.cli).get(pluginKey);
           if (conv != null && conv.isEnabled(ctx, pom)) {
             String version = conv.gradlePluginVersion;
             if (conv.gradlePluginId != null)
@@ -2387,40 +4717,33 @@ public class xmvn {
       }
     }
 
-    private static List<PluginExecutionContext> getPluginExecutions(Plugin plugin, Project pom) {
-      Project epPom = pom.effectivePom();
-      if (epPom != null) {
-        return collectPluginExecutionsFromEffectivePom(plugin, epPom);
-      }
-      List<PluginExecutionContext> result = new ArrayList<>();
-      Set<String> seenExecKeys = new HashSet<>();
-      collectPluginExecutionsRecursive(plugin, pom, result, seenExecKeys);
-      return result;
-    }
-
-    private static List<PluginExecutionContext> collectPluginExecutionsFromEffectivePom(Plugin plugin, Project epPom) {
-      List<PluginExecutionContext> result = new ArrayList<>();
-      if (epPom == null || epPom.build == null || epPom.build.plugins == null || epPom.build.plugins.plugin == null) {
-        return result;
-      }
-      for (Plugin p : epPom.build.plugins.plugin) {
-        if (plugin.getEffectiveGroupId().equals(p.getEffectiveGroupId()) && plugin.artifactId.equals(p.artifactId)) {
-          if (p.executions != null && p.executions.execution != null) {
-            for (Execution exec : p.executions.execution) {
-              if (exec.goals != null && exec.goals.goal != null) {
-                for (String goal : exec.goals.goal) {
-                  PluginConfiguration config = exec.configuration != null ? exec.configuration : p.configuration;
-                  result.add(new PluginExecutionContext(p, goal, config));
+    /** All executions of an effective pom in one pass over its plugins, grouped by groupId:artifactId in declaration order. */
+    private static Map<String, List<PluginExecutionContext>> effectivePluginExecutions(Project epPom) {
+      synchronized (epPom) {
+        if (epPom.pluginExecutions != null)
+          return epPom.pluginExecutions;
+        Map<String, List<PluginExecutionContext>> result = new LinkedHashMap<>();
+        if (epPom.build != null && epPom.build.plugins != null && epPom.build.plugins.plugin != null) {
+          for (Plugin p : epPom.build.plugins.plugin) {
+            List<PluginExecutionContext> execs = result.computeIfAbsent(p.getEffectiveGroupId() + ":" + p.artifactId, k -> new ArrayList<>());
+            if (p.executions != null && p.executions.execution != null) {
+              for (Execution exec : p.executions.execution) {
+                if (exec.goals != null && exec.goals.goal != null) {
+                  for (String goal : exec.goals.goal) {
+                    PluginConfiguration config = exec.configuration != null ? exec.configuration : p.configuration;
+                    execs.add(new PluginExecutionContext(p, goal, config));
+                  }
                 }
               }
             }
-          }
-          if ((p.executions == null || p.executions.execution == null || p.executions.execution.isEmpty())) {
-            result.add(new PluginExecutionContext(p, "default", p.configuration));
+            if ((p.executions == null || p.executions.execution == null || p.executions.execution.isEmpty())) {
+              execs.add(new PluginExecutionContext(p, "default", p.configuration));
+            }
           }
         }
+        epPom.pluginExecutions = result;
+        return result;
       }
-      return result;
     }
 
     private static void collectPluginExecutionsRecursive(Plugin plugin, Project pom, List<PluginExecutionContext> result, Set<String> seenExecKeys) {
@@ -2608,7 +4931,7 @@ public class xmvn {
       return null;
     }
 
-    private static String resolveProperties(String value, Project pom) {
+    static String resolveProperties(String value, Project pom) {
       if (value == null)
         return null;
 
@@ -2954,9 +5277,303 @@ public class xmvn {
    * "com.example.generated", "src/main/resources/schema.xsd" ) }
    */
 
-  static class PomLoader {
-    public static Project loadRootPom(LoadPomOptions cli) {
+  /**
+   * The user maven settings.xml: local repository, mirrors, profiles with repositories and activeProfiles. Parsed once
+   * and reused while the file is unchanged (same mtime and size). A missing file means maven defaults. Profile properties
+   * are not read: poms are interpolated with their own properties only.
+   */
+  public static class MvnSettings {
+    public String localRepository;
+    public Mirrors mirrors;
+    public Profiles profiles;
+    public ActiveProfiles activeProfiles;
+
+    public static class Mirrors {
+      @JacksonXmlElementWrapper(useWrapping = false)
+      public List<Mirror> mirror;
+    }
+
+    public static class Mirror {
+      public String id;
+      public String mirrorOf;
+      public String url;
+
+      /** Maven mirrorOf patterns: *, comma separated ids and !id exclusions. */
+      public boolean mirrors(String repositoryId) {
+        if (mirrorOf == null)
+          return false;
+        boolean matched = false;
+        for (String pattern : mirrorOf.split(",")) {
+          pattern = pattern.trim();
+          if (pattern.equals("!" + repositoryId))
+            return false;
+          matched |= pattern.equals("*") || pattern.equals(repositoryId);
+        }
+        return matched;
+      }
+    }
+
+    public static class Profiles {
+      @JacksonXmlElementWrapper(useWrapping = false)
+      public List<Profile> profile;
+    }
+
+    public static class Profile {
+      public String id;
+      public Activation activation;
+      public Repositories repositories;
+    }
+
+    public static class Activation {
+      public Boolean activeByDefault;
+    }
+
+    public static class Repositories {
+      @JacksonXmlElementWrapper(useWrapping = false)
+      public List<Repository> repository;
+    }
+
+    public static class Repository {
+      public String id;
+      public String url;
+    }
+
+    public static class ActiveProfiles {
+      @JacksonXmlElementWrapper(useWrapping = false)
+      public List<String> activeProfile;
+    }
+
+    private record Cached(Path file, long modified, long size, MvnSettings settings) {
+    }
+
+    private static final AtomicReference<Cached> cache = new AtomicReference<>();
+
+    public static Path userSettingsFile() {
+      return Paths.get(System.getProperty("user.home"), ".m2/settings.xml");
+    }
+
+    public static MvnSettings current() {
+      return load(userSettingsFile());
+    }
+
+    public static MvnSettings load(Path settingsXml) {
+      try {
+        boolean exists = Files.exists(settingsXml);
+        long modified = exists ? Files.getLastModifiedTime(settingsXml).toMillis() : -1;
+        long size = exists ? Files.size(settingsXml) : -1;
+        Cached cached = cache.get();
+        if (cached != null && cached.file.equals(settingsXml) && cached.modified == modified && cached.size == size)
+          return cached.settings;
+        MvnSettings settings;
+        if (exists) {
+          XmlMapper xmlMapper = new XmlMapper();
+          xmlMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+          settings = xmlMapper.readValue(settingsXml.toFile(), MvnSettings.class);
+          log.info("Loaded maven settings from {}", settingsXml);
+        } else {
+          log.info("No maven settings at {}, using defaults", settingsXml);
+          settings = new MvnSettings();
+        }
+        cache.set(new Cached(settingsXml, modified, size, settings));
+        return settings;
+      } catch (IOException e) {
+        throw new RuntimeException("Failed to read Maven settings.xml: " + settingsXml.toAbsolutePath(), e);
+      }
+    }
+
+    /** -Dmaven.repo.local, then settings localRepository, then ~/.m2/repository. */
+    public Path localRepository() {
+      String path = System.getProperty("maven.repo.local", localRepository);
+      if (path == null || path.isBlank())
+        return Paths.get(System.getProperty("user.home"), ".m2/repository");
+      return Paths.get(path.trim().replace("${user.home}", System.getProperty("user.home")).replace("${env.HOME}",
+          Objects.toString(System.getenv("HOME"), ""))).toAbsolutePath();
+    }
+
+    public List<Mirror> mirrors() {
+      return mirrors != null && mirrors.mirror != null ? mirrors.mirror : List.of();
+    }
+
+    /** Profiles listed in activeProfiles, or when none of them is, the activeByDefault ones (as maven does). */
+    public List<Profile> activeProfiles() {
+      if (profiles == null || profiles.profile == null)
+        return List.of();
+      List<String> active = activeProfiles != null && activeProfiles.activeProfile != null ? activeProfiles.activeProfile : List.of();
+      List<Profile> explicit = profiles.profile.stream().filter(p -> active.contains(p.id)).toList();
+      if (!explicit.isEmpty())
+        return explicit;
+      return profiles.profile.stream().filter(p -> p.activation != null && Boolean.TRUE.equals(p.activation.activeByDefault)).toList();
+    }
+
+    /** Repositories of the active profiles that are not routed through a mirror. */
+    public List<Repository> activeRepositories() {
+      return activeProfiles().stream()
+          .filter(p -> p.repositories != null && p.repositories.repository != null)
+          .flatMap(p -> p.repositories.repository.stream())
+          .filter(r -> mirrors().stream().noneMatch(m -> m.mirrors(r.id)))
+          .toList();
+    }
+  }
+
+  /**
+   * Phase timings and counters of one load/convert run. Always collected (a few adders per pom), printed and written as json with
+   * {@code 2gradle --profile}.
+   */
+  public static class PipelineProfile {
+    private final Map<String, Long> phaseNanos = java.util.Collections.synchronizedMap(new LinkedHashMap<>());
+    private final Map<String, Long> moduleNanos = new java.util.concurrent.ConcurrentHashMap<>();
+    private final Map<String, java.util.concurrent.atomic.LongAdder> counters = new java.util.concurrent.ConcurrentSkipListMap<>();
+    private final long started = System.nanoTime();
+
+    /** Records the time since {@code startNanos} for the phase and returns now, so consecutive phases can be chained. */
+    public long phase(String name, long startNanos) {
+      long now = System.nanoTime();
+      phaseNanos.merge(name, now - startNanos, Long::sum);
+      return now;
+    }
+
+    public void module(String ga, long nanos) {
+      moduleNanos.merge(ga, nanos, Long::sum);
+    }
+
+    public void count(String counter, long delta) {
+      counters.computeIfAbsent(counter, k -> new java.util.concurrent.atomic.LongAdder()).add(delta);
+    }
+
+    /** Counts a lookup in the named cache as hit or miss. */
+    public <T> T lookup(String cache, T found) {
+      count(cache + (found != null ? ".hits" : ".misses"), 1);
+      return found;
+    }
+
+    private long counter(String name) {
+      var adder = counters.get(name);
+      return adder != null ? adder.sum() : 0;
+    }
+
+    public Map<String, Object> toJson() {
+      Map<String, Object> json = new LinkedHashMap<>();
+      json.put("totalMillis", (System.nanoTime() - started) / 1_000_000.0);
+      Map<String, Object> phases = new LinkedHashMap<>();
+      synchronized (phaseNanos) {
+        phaseNanos.forEach((name, nanos) -> phases.put(name, nanos / 1_000_000.0));
+      }
+      json.put("phasesMillis", phases);
+      Map<String, Object> values = new LinkedHashMap<>();
+      counters.forEach((name, adder) -> values.put(name, adder.sum()));
+      json.put("counters", values);
+      Map<String, Object> ratios = new LinkedHashMap<>();
+      StreamEx.of(counters.keySet()).filter(k -> k.endsWith(".hits") || k.endsWith(".misses")).map(k -> k.substring(0, k.lastIndexOf('.'))).distinct()
+          .forEach(cache -> {
+            long hits = counter(cache + ".hits");
+            ratios.put(cache, (double) hits / (hits + counter(cache + ".misses")));
+          });
+      json.put("cacheHitRatios", ratios);
+      Map<String, Object> modules = new LinkedHashMap<>();
+      EntryStream.of(moduleNanos).reverseSorted(Map.Entry.comparingByValue()).forKeyValue((ga, nanos) -> modules.put(ga, nanos / 1_000_000.0));
+      json.put("modulesMillis", modules);
+      return json;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void printTable(java.io.PrintStream out) {
+      Map<String, Object> json = toJson();
+      out.printf("%-45s %12s%n", "phase", "ms");
+      ((Map<String, Double>) json.get("phasesMillis")).forEach((name, ms) -> out.printf("%-45s %12.1f%n", name, ms));
+      out.printf("%-45s %12.1f%n", "total", (Double) json.get("totalMillis"));
+      out.printf("%n%-45s %12s%n", "counter", "value");
+      ((Map<String, Long>) json.get("counters")).forEach((name, value) -> out.printf("%-45s %12d%n", name, value));
+      ((Map<String, Double>) json.get("cacheHitRatios")).forEach((name, ratio) -> out.printf("%-45s %11.1f%%%n", name + " hit ratio", ratio * 100));
+      Map<String, Double> modules = (Map<String, Double>) json.get("modulesMillis");
+      out.printf("%n%-45s %12s%n", "slowest modules to generate (of " + modules.size() + ")", "ms");
+      EntryStream.of(modules).limit(10).forKeyValue((ga, ms) -> out.printf("%-45s %12.1f%n", ga, ms));
+    }
+  }
+
+  /**
+   * Poms from the local maven repository parsed once and shared by several {@link PomLoaderSession}s. Every session gets its
+   * own {@link Project#copyForSession()}.
+   */
+  public static class RepositoryPomCache {
+    private final Map<String, Project> parsed = new java.util.concurrent.ConcurrentHashMap<>();
+    private final java.util.concurrent.atomic.LongAdder hits = new java.util.concurrent.atomic.LongAdder();
+
+    public Project get(File canonicalPomFile, java.util.function.Function<File, Project> parser) {
+      hits.increment();
+      return parsed.computeIfAbsent(canonicalPomFile.getPath(), key -> {
+        hits.decrement();
+        return parser.apply(canonicalPomFile);
+      }).copyForSession();
+    }
+
+    public int size() {
+      return parsed.size();
+    }
+
+    public long hits() {
+      return hits.sum();
+    }
+  }
+
+  /**
+   * Loads one root project with all its modules and parents. Caches, mappers and the {@link ProjectContext} belong to the
+   * session, so several roots can be loaded in parallel in the same JVM.
+   */
+  public static class PomLoaderSession {
+    public final LoadPomOptions cli;
+    private final XmlMapper pomMapper;
+    private final XmlMapper effectivePomMapper;
+    /** by ga - TODO could be gav in the future. ignoring version for now */
+    private final Map<String, Project> pomCache = new java.util.concurrent.ConcurrentHashMap<>();
+    /** by canonical pom path */
+    private final Map<String, Project> fileCache = new java.util.concurrent.ConcurrentHashMap<>();
+    /** by the absolute path as requested, so that repeated lookups skip the filesystem canonicalization */
+    private final Map<String, Project> requestedPathCache = new java.util.concurrent.ConcurrentHashMap<>();
+    private ProjectContext context;
+    private final RepositoryPomCache repositoryPoms;
+    /** canonical like the pom files, so that a symlinked or relative repository still matches {@link #loadPom} paths */
+    private final Path localRepository = canonical(MvnSettings.current().localRepository());
+    public final PipelineProfile profile = new PipelineProfile();
+    /** Poms loaded while linking, still to be linked. Only set during {@link #linkParentsAndModules}. */
+    private volatile java.util.Queue<Project> discovered;
+
+    public PomLoaderSession(LoadPomOptions cli) {
+      this(cli, null);
+    }
+
+    public PomLoaderSession(LoadPomOptions cli, RepositoryPomCache repositoryPoms) {
+      this.cli = cli;
+      this.repositoryPoms = repositoryPoms;
+      this.pomMapper = new XmlMapper();
+      this.pomMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, !cli.ignoreUnknown);
+      // third party poms write list configurations (like excludes) as one comma separated string
+      this.pomMapper.configure(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY, true);
+      JacksonXmlModule module = new JacksonXmlModule();
+      module.setDefaultUseWrapper(false); // optional depending on your XML structure
+      this.effectivePomMapper = new XmlMapper(module);
+      this.effectivePomMapper.setDefaultUseWrapper(false);
+      this.effectivePomMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, !cli.ignoreUnknown);
+    }
+
+    public ProjectContext context() {
+      return context;
+    }
+
+    public Path localRepository() {
+      return localRepository;
+    }
+
+    private static Path canonical(Path path) {
+      try {
+        return Files.exists(path) ? path.toRealPath() : path.toAbsolutePath().normalize();
+      } catch (IOException e) {
+        return path.toAbsolutePath().normalize();
+      }
+    }
+
+    public Project loadRootPom() {
       log.info("1. load root pom from {}", cli.projectDir);
+      long t = System.nanoTime();
       Projects effectivePom = null;
       if (cli.useEffectivePom) {
         log.info("1b. create an effectivePom containing all existing poms or use existing root project pom");
@@ -2964,14 +5581,17 @@ public class xmvn {
         if (!Files.exists(effPomPath) || cli.forceGenerateEffectivePom) {
           log.info("Generating effective-pom.xml");
           generateEffectivePom(cli.projectDir, effPomPath);
+          t = profile.phase("1b. mvn help:effective-pom", t);
         }
         log.info("1c. load effective pom from {}", effPomPath);
-        effectivePom = loadEffectivePom(cli.ignoreUnknown, effPomPath);
+        effectivePom = loadEffectivePom(effPomPath);
+        t = profile.phase("1c. parse effective pom", t);
       }
 
-      ProjectContext context = new ProjectContext(cli, null, effectivePom);
-      Project rootPom = loadPom(null, null, context.cli.projectDir, context);
+      context = new ProjectContext(this, cli, null, effectivePom);
+      Project rootPom = loadPom(null, null, context.cli.projectDir);
       context.root = rootPom;
+      t = profile.phase("1d. load root pom", t);
 
       log.info("2. load all poms in cache");
       log.info("Search poms under {} since root effective pom doesn't give submodules locations.", rootPom.pomFile.getParentFile());
@@ -2991,7 +5611,7 @@ public class xmvn {
           @Override
           public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
             if (file.getFileName().toString().equals("pom.xml")) {
-              Project modulePomProject = loadPom(rootPom, rootPom, file.toFile(), context, false);
+              Project modulePomProject = loadPom(rootPom, rootPom, file.toFile(), false);
             }
             return FileVisitResult.CONTINUE;
           }
@@ -3000,12 +5620,14 @@ public class xmvn {
         throw new RuntimeException("Failed to walk project tree under " + rootPom.pomFile.getParentFile(), e);
       }
 
+      t = profile.phase("2. load all poms in cache", t);
+
       log.info("3. load all effective poms in cache");
       rootPom.context.effectivePom.project.forEach(p -> {
         //TODO could be gav in the future. ignoring version for now
         String key = p.ga();
         p.context = context;
-        Project existing = pomCache.get(key);
+        Project existing = profile.lookup("pomCache", pomCache.get(key));
         if (existing != null) {
           if (existing.effectivePom.get() != null) {
             log.debug("Effective POM {} is already added to existng project in cache.", key);
@@ -3021,34 +5643,72 @@ public class xmvn {
         }
       });
 
+      t = profile.phase("3. load all effective poms in cache", t);
+
       log.info("4. reconfigure parents and load submodules/subprojects for all loaded poms");
-      var reconfigured = new TreeSet<Project>();
-      var current = new TreeSet<>(pomCache.values());
-      do {
-        for (Project p : current) {
-          reconfigureParent(p, context.cli.ignoreUnknown);
-          reconfigured.add(p);
-          loadSubProjects(rootPom, context, p);
-        }
-        var after = new LinkedHashSet<>(pomCache.values());
-        current = after.stream().filter(k -> !reconfigured.contains(k)).collect(TreeSet<Project>::new, TreeSet::add, TreeSet::addAll);
-        log.info("... {} poms still to reconfigure parents ... {}", current.size(), current.stream().map(Project::ga).toList());
-      } while (current.size() > 0);
+      linkParentsAndModules(rootPom);
+      profile.phase("4. reconfigure parents and load submodules", t);
+      profile.count("poms.loaded", fileCache.size());
       return rootPom;
     }
 
-    private static void loadSubProjects(Project root, ProjectContext context, Project pom) {
+    /**
+     * Resolves the parent and loads the modules of every pom exactly once. Poms loaded meanwhile (parents, modules) are queued by
+     * {@link #loadPom} and linked in the next wave. The poms of a wave are independent, so with --link-threads they are linked in
+     * parallel.
+     */
+    private void linkParentsAndModules(Project rootPom) {
+      Set<String> linked = java.util.concurrent.ConcurrentHashMap.newKeySet();
+      discovered = new java.util.concurrent.ConcurrentLinkedQueue<>(pomCache.values());
+      var pool = cli.linkThreads > 1 ? new java.util.concurrent.ForkJoinPool(cli.linkThreads) : null;
+      try {
+        while (!discovered.isEmpty()) {
+          List<Project> wave = new ArrayList<>();
+          for (Project p; (p = discovered.poll()) != null;) {
+            if (linked.add(p.gav()))
+              wave.add(p);
+          }
+          wave.sort(null);
+          profile.count("link.waves", 1);
+          profile.count("link.poms", wave.size());
+          if (pool == null) {
+            wave.forEach(p -> link(rootPom, p));
+          } else {
+            pool.submit(() -> wave.parallelStream().forEach(p -> link(rootPom, p))).get();
+          }
+          log.info("... {} poms linked, {} newly loaded poms to link next", wave.size(), discovered.size());
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(e);
+      } catch (java.util.concurrent.ExecutionException e) {
+        if (e.getCause() instanceof RuntimeException re)
+          throw re;
+        throw new RuntimeException(e.getCause());
+      } finally {
+        discovered = null;
+        if (pool != null)
+          pool.shutdown();
+      }
+    }
+
+    private void link(Project rootPom, Project pom) {
+      reconfigureParent(pom, context.cli.ignoreUnknown);
+      loadSubProjects(rootPom, pom);
+    }
+
+    private void loadSubProjects(Project root, Project pom) {
       var pom2 = pom.effectivePomOrThis();
       //load also childrens of effectivePom
       if (pom2.modules != null && pom2.modules.modules != null) {
         for (String module : pom2.modules.modules) {
           File moduleDir = pom.pomFile.getParentFile().toPath().resolve(module).toFile();
-          Project modulePom = loadPom(root != null ? root : pom, pom, moduleDir, context);
-          log.info("Loading submodule {}/{} -> {} @ {}", pom.ga(), module, modulePom.ga(), modulePom.pomFile.getAbsolutePath());
+          Project modulePom = loadPom(root != null ? root : pom, pom, moduleDir);
           if (modulePom == null) {
             log.warn("Module {} listed in effective POM of {} not found at {}", module, pom.ga(), moduleDir);
             continue;
           }
+          log.info("Loading submodule {}/{} -> {} @ {}", pom.ga(), module, modulePom.ga(), modulePom.pomFile.getAbsolutePath());
           pom.addSubmodule(modulePom);
           //loadAllPomsRecursive(modulePom, context);
         }
@@ -3056,7 +5716,7 @@ public class xmvn {
       if (pom2.subprojects != null && pom2.subprojects.subprojects != null) {
         for (String module : pom2.subprojects.subprojects) {
           File moduleDir = pom.context.cli.projectDir.toPath().resolve(module).toFile();
-          Project modulePom = loadPom(root != null ? root : pom, pom, moduleDir, context);
+          Project modulePom = loadPom(root != null ? root : pom, pom, moduleDir);
           pom.addSubproject(modulePom);
           //loadAllPomsRecursive(modulePom, context);
         }
@@ -3080,23 +5740,19 @@ public class xmvn {
       }
     }
 
-    private static boolean isWindows() {
+    static boolean isWindows() {
       return System.getProperty("os.name").toLowerCase().contains("win");
     }
 
-    private static Projects loadEffectivePom(boolean ignoreUnknown, Path effPomPath) {
+    private Projects loadEffectivePom(Path effPomPath) {
       if (!Files.exists(effPomPath)) {
         throw new RuntimeException("File not found at " + effPomPath);
       }
 
-      JacksonXmlModule module = new JacksonXmlModule();
-      module.setDefaultUseWrapper(false); // optional depending on your XML structure
-
-      XmlMapper xmlMapper = new XmlMapper(module);
-      xmlMapper.setDefaultUseWrapper(false);
-      xmlMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, !ignoreUnknown);
+      XmlMapper xmlMapper = effectivePomMapper;
       try {
         String xml = Files.readString(effPomPath);
+        profile.count("effectivePom.xmlBytes", Files.size(effPomPath));
 
         try {
           // Try parse as Projects (multi-module)
@@ -3116,14 +5772,11 @@ public class xmvn {
       }
     }
 
-    private static final Map<String, Project> pomCache = new HashMap<>();
-    private static final Map<String, Project> fileCache = new HashMap<>();
-
-    public static Project loadPom(Project root, Project parentDirPom, File projectDirOrPomFile, ProjectContext context) {
-      return loadPom(root, parentDirPom, projectDirOrPomFile, context, true);
+    public Project loadPom(Project root, Project parentDirPom, File projectDirOrPomFile) {
+      return loadPom(root, parentDirPom, projectDirOrPomFile, true);
     }
 
-    public static Project loadPom(Project root, Project parentDirPom, File projectDirOrPomFile, ProjectContext context, boolean reconfigureParent) {
+    public Project loadPom(Project root, Project parentDirPom, File projectDirOrPomFile, boolean reconfigureParent) {
       //      Projects effectivePom = context.effectivePom;
       //      if (effectivePom != null && effectivePom.project != null) {
       //        //search effectivePom for this pomFile
@@ -3136,25 +5789,40 @@ public class xmvn {
       //          }
       //        }
       //      }
+      String requestedKey = projectDirOrPomFile.getAbsolutePath();
+      Project known = profile.lookup("requestedPathCache", requestedPathCache.get(requestedKey));
+      if (known != null)
+        return known;
       try {
         File pomFile = (projectDirOrPomFile.isDirectory() ? projectDirOrPomFile.toPath().resolve("pom.xml").toFile() : projectDirOrPomFile)
             .getCanonicalFile();
         String key = pomFile.getPath();
-        if (fileCache.containsKey(key)) {
-          return fileCache.get(key);
+        Project cached = profile.lookup("fileCache", fileCache.get(key));
+        if (cached != null) {
+          requestedPathCache.put(requestedKey, cached);
+          return cached;
         }
         if (!pomFile.exists()) {
           log.warn("POM file not found: {}", pomFile.getAbsolutePath());
           return null;
         }
         boolean ignoreUnknown = context.cli.ignoreUnknown;
-        Project pom = parsePom(pomFile, ignoreUnknown);
-        log.info("Loading POM {} from {}", pom.ga(), pomFile.getAbsolutePath());
+        Project pom = repositoryPoms != null && pomFile.toPath().startsWith(localRepository) ? repositoryPoms.get(pomFile, this::parsePom)
+            : parsePom(pomFile);
         pom.context = context;
         pom.parentDirPom = parentDirPom;
         context.reconfigureEffectivePom(pom);
-        fileCache.put(key, pom);
+        cached = fileCache.putIfAbsent(key, pom);
+        if (cached != null) {
+          // loaded meanwhile by another thread
+          return cached;
+        }
+        log.info("Loading POM {} from {}", pom.ga(), pomFile.getAbsolutePath());
         pomCache.put(pom.ga(), pom);
+        requestedPathCache.put(requestedKey, pom);
+        var linkQueue = discovered;
+        if (linkQueue != null)
+          linkQueue.add(pom);
 
         if (reconfigureParent)
           reconfigureParent(pom, ignoreUnknown);
@@ -3164,7 +5832,7 @@ public class xmvn {
       }
     }
 
-    private static void reconfigureParent(Project pom, boolean ignoreUnknown) {
+    private void reconfigureParent(Project pom, boolean ignoreUnknown) {
       if (pom.parentGav != null) {
         log.debug("Resolving parent POM for {} -> {} . Pom at {}", pom.ga(), pom.parentGav.ga(), pom.pomFile.getAbsolutePath());
         var parent = findParentPomFileNoCheck(pom.effectivePomOrThis(), ignoreUnknown);
@@ -3210,7 +5878,7 @@ public class xmvn {
       }
     }
 
-    private static Project findParentPomFileNoCheck(Project pom, boolean ignoreUnknown) {
+    private Project findParentPomFileNoCheck(Project pom, boolean ignoreUnknown) {
       if (pom.parentGav == null) {
         return null;
       }
@@ -3218,7 +5886,7 @@ public class xmvn {
         return pom.parentPom;
       }
       //first search in cache by gav
-      Project parentPom = pomCache.get(pom.parentGav.ga());
+      Project parentPom = profile.lookup("pomCache", pomCache.get(pom.parentGav.ga()));
       if (parentPom != null) {
         return parentPom;
       }
@@ -3243,7 +5911,7 @@ public class xmvn {
         //trying to resolve parent pom using relativePath first in cache
         File parentProjectDir = new File(projectDir, relPath).getCanonicalFile();
         String candidateKey = parentProjectDir.getCanonicalPath();
-        parentPom = fileCache.get(candidateKey);
+        parentPom = profile.lookup("fileCache", fileCache.get(candidateKey));
         if (parentPom != null) {
           if (parentPom.effectivePomOrThis().id().equals(pom.parentGav.id())) {
             return parentPom;
@@ -3256,7 +5924,7 @@ public class xmvn {
           log.info("Trying to resolve parent POM for {} using relativePath [{}] to {} -> candidate path: {}", pom.ga(), relPath,
               pom.pomFile.getAbsolutePath(), candidateKey);
           //trying to resolve parent pom using relativePath in directory structure but only if parentPom not in cache because in cache is kept by canonical path
-          parentPom = loadPom(pom.context.root, pom.parentDirPom, parentProjectDir, pom.context);
+          parentPom = loadPom(pom.context.root, pom.parentDirPom, parentProjectDir);
           if (parentPom != null) {
             if (parentPom.effectivePomOrThis().ga().equals(pom.parentGav.ga())) {
               if (!parentPom.effectivePomOrThis().id().equals(pom.parentGav.id())) {
@@ -3280,9 +5948,9 @@ public class xmvn {
         String groupPath = pom.parentGav.groupId.replace('.', '/');
         String artifactId = pom.parentGav.artifactId;
         String version = pom.parentGav.version;
-        File m2 = new File(System.getProperty("user.home"), ".m2/repository");
+        File m2 = localRepository.toFile();
         File repoPom = new File(m2, String.format("%s/%s/%s/%s-%s.pom", groupPath, artifactId, version, artifactId, version));
-        Project parentPomFromRepo = loadPom(pom.context.root, null, repoPom, pom.context);
+        Project parentPomFromRepo = loadPom(pom.context.root, null, repoPom);
         if (parentPomFromRepo != null)
           return parentPomFromRepo;
         throw new RuntimeException("Parent POM not found: tried local [" + candidateKey + "] and Maven repo [" + repoPom + "]");
@@ -3291,11 +5959,11 @@ public class xmvn {
       }
     }
 
-    private static Project parsePom(File pomFile, boolean ignoreUnknown) {
+    Project parsePom(File pomFile) {
       try {
-        XmlMapper xmlMapper = new XmlMapper();
-        xmlMapper.configure(com.fasterxml.jackson.databind.DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, !ignoreUnknown);
-        Project res = xmlMapper.readValue(pomFile, Project.class);
+        Project res = pomMapper.readValue(pomFile, Project.class);
+        profile.count("poms.parsed", 1);
+        profile.count("poms.xmlBytes", pomFile.length());
         res.pomFile = pomFile;
         if (res.groupId == null && res.parentGav != null && res.parentGav.groupId != null) {
           res.groupId = res.parentGav.groupId;
@@ -0,0 +1,226 @@
+//usr/bin/env jbang "$0" "$@" ; exit $?
+//Description: Tests for xmvn, run with `jbang xmvn_test.java`
+//SOURCES xmvn.java
+//SOURCES com/namekis/utils/RichTest.java
+//SOURCES com/namekis/utils/RichTestCli.java
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.namekis.utils.RichTest;
+import com.namekis.utils.RichTestCli;
+
+public class xmvn_test {
+  public static void main(String... args) {
+    RichTestCli.main2(args);
+  }
+
+  /** root with modules a, b -> a and c -> a, b; b and c also use slf4j-api managed by root. Only poms, nothing in ~/.m2 is needed. */
+  static Path fixture(Path dir) throws IOException {
+    Files.writeString(dir.resolve("pom.xml"), """
+        <project xmlns="http://maven.apache.org/POM/4.0.0"><modelVersion>4.0.0</modelVersion>
+        <groupId>fx</groupId><artifactId>root</artifactId><version>1.0</version><packaging>pom</packaging>
+        <modules><module>a</module><module>b</module><module>c</module></modules>
+        <dependencyManagement><dependencies>
+        <dependency><groupId>org.slf4j</groupId><artifactId>slf4j-api</artifactId><version>2.0.7</version></dependency>
+        </dependencies></dependencyManagement>
+        </project>
+        """);
+    module(dir, "a", "");
+    module(dir, "b", dependency("fx", "a", "1.0") + dependency("org.slf4j", "slf4j-api", null));
+    module(dir, "c", dependency("fx", "a", "1.0") + dependency("fx", "b", "1.0") + dependency("org.slf4j", "slf4j-api", null));
+    return dir;
+  }
+
+  private static void module(Path root, String artifactId, String dependencies) throws IOException {
+    Files.createDirectories(root.resolve(artifactId));
+    Files.writeString(root.resolve(artifactId).resolve("pom.xml"), """
+        <project xmlns="http://maven.apache.org/POM/4.0.0"><modelVersion>4.0.0</modelVersion>
+        <parent><groupId>fx</groupId><artifactId>root</artifactId><version>1.0</version></parent>
+        <artifactId>%s</artifactId>
+        <dependencies>%s</dependencies>
+        </project>
+        """.formatted(artifactId, dependencies));
+  }
+
+  private static String dependency(String groupId, String artifactId, String version) {
+    return "<dependency><groupId>%s</groupId><artifactId>%s</artifactId>%s</dependency>".formatted(groupId, artifactId,
+        version != null ? "<version>" + version + "</version>" : "");
+  }
+
+  @Test
+  void arangoJsonlHasEveryDependencyOnce(@TempDir Path dir) throws IOException {
+    Path root = fixture(dir);
+    Path out = dir.resolve("arango");
+    RichTest.CommandResult result = RichTest.runCommand(new xmvn.XmvnRoot(), "2arango", "--format=jsonl", "--batch-size=2",
+        "--output=" + out, root.toString());
+    assertEquals(0, result.exitCode, result.output);
+    assertEquals(List.of("""
+        {"_key":"fx_a","groupId":"fx","artifactId":"a","version":"1.0","packaging":"jar"}""", """
+        {"_key":"fx_b","groupId":"fx","artifactId":"b","version":"1.0","packaging":"jar"}""", """
+        {"_key":"fx_c","groupId":"fx","artifactId":"c","version":"1.0","packaging":"jar"}""", """
+        {"_key":"fx_root","groupId":"fx","artifactId":"root","version":"1.0","packaging":"pom"}"""),
+        Files.readAllLines(out.resolve("projects.jsonl")));
+    assertEquals(List.of("""
+        {"_key":"fx_a","groupId":"fx","artifactId":"a","version":"1.0","packaging":"jar"}""", """
+        {"_key":"fx_b","groupId":"fx","artifactId":"b","version":"1.0","packaging":"jar"}""", """
+        {"_key":"org_slf4j_slf4j_api","groupId":"org.slf4j","artifactId":"slf4j-api","version":"2.0.7","packaging":"jar"}"""),
+        Files.readAllLines(out.resolve("dependencies.jsonl")));
+    assertEquals(List.of("""
+        {"_key":"fx_b-fx_a","_from":"projects/fx_b","_to":"dependencies/fx_a","scope":"compile"}""", """
+        {"_key":"fx_b-org_slf4j_slf4j_api","_from":"projects/fx_b","_to":"dependencies/org_slf4j_slf4j_api","scope":"compile"}""", """
+        {"_key":"fx_c-fx_a","_from":"projects/fx_c","_to":"dependencies/fx_a","scope":"compile"}""", """
+        {"_key":"fx_c-fx_b","_from":"projects/fx_c","_to":"dependencies/fx_b","scope":"compile"}""", """
+        {"_key":"fx_c-org_slf4j_slf4j_api","_from":"projects/fx_c","_to":"dependencies/org_slf4j_slf4j_api","scope":"compile"}"""),
+        Files.readAllLines(out.resolve("edges.jsonl")));
+  }
+
+  @Test
+  void arangoAqlSplitsInsertsByBatchSize(@TempDir Path dir) throws IOException {
+    Path root = fixture(dir);
+    RichTest.CommandResult result = RichTest.runCommand(new xmvn.XmvnRoot(), "2arango", "--format=aql", "--batch-size=2", root.toString());
+    assertEquals(0, result.exitCode, result.output);
+    // 4 projects, 3 dependencies and 5 edges in statements of at most 2 documents
+    assertEquals(List.of("projects", "projects", "dependencies", "dependencies", "edges", "edges", "edges"), inserts(result.output));
+  }
+
+  @Test
+  void arangoRejectsNonPositiveBatchSize(@TempDir Path dir) throws IOException {
+    Path root = fixture(dir);
+    RichTest.CommandResult result = RichTest.runCommand(new xmvn.XmvnRoot(), "2arango", "--batch-size=0", root.toString());
+    assertEquals(2, result.exitCode, result.output);
+    assertTrue(result.output.contains("--batch-size must be positive"), result.output);
+  }
+
+  @Test
+  void bundledPluginRulesLoad() {
+    var registry = xmvn.GradleKtsGenerator.PluginConversionRegistry.load(List.of());
+    assertEquals("testJars", registry.get("org.apache.maven.plugins:maven-jar-plugin:test-jar").name);
+    assertEquals("4.0.1", registry.get("org.codehaus.mojo:javacc-maven-plugin:javacc").gradlePluginVersion);
+    assertNotNull(registry.get("org.apache.maven.plugins:maven-checkstyle-plugin:default").handler);
+  }
+
+  @Test
+  void pluginRulesFileOverridesBundledRulesByKey(@TempDir Path dir) throws IOException {
+    Path rules = dir.resolve("rules.yaml");
+    Files.writeString(rules, """
+        - name: javacc5
+          plugin: org.codehaus.mojo:javacc-maven-plugin:javacc
+          gradlePluginId: org.javacc.javacc
+          gradlePluginVersion: 5.0.0
+          snippet: "// javacc 5"
+        - name: mine
+          plugin: com.example:my-maven-plugin:generate
+          snippet: "// mine"
+        """);
+    var registry = xmvn.GradleKtsGenerator.PluginConversionRegistry.load(List.of(rules.toFile()));
+    var javacc = registry.get("org.codehaus.mojo:javacc-maven-plugin:javacc");
+    assertEquals("javacc5", javacc.name);
+    assertEquals("5.0.0", javacc.gradlePluginVersion);
+    assertEquals("// javacc 5", javacc.handler.apply(null, null));
+    assertEquals("// mine", registry.get("com.example:my-maven-plugin:generate").handler.apply(null, null));
+    // the other bundled rules are kept
+    assertEquals("testJars", registry.get("org.apache.maven.plugins:maven-jar-plugin:test-jar").name);
+  }
+
+  @Test
+  void pluginRuleWithUnknownHandlerIsRejected(@TempDir Path dir) throws IOException {
+    Path rules = dir.resolve("rules.json");
+    Files.writeString(rules, """
+        [{"name": "broken", "plugin": "com.example:my-maven-plugin:generate", "handler": "nope"}]
+        """);
+    RuntimeException e = assertThrows(IllegalArgumentException.class,
+        () -> xmvn.GradleKtsGenerator.PluginConversionRegistry.load(List.of(rules.toFile())));
+    assertTrue(e.getMessage().startsWith("Plugin rule broken has no snippet and unknown handler nope"), e.getMessage());
+  }
+
+  @Test
+  void gradleWithoutOptionsRemovesTheirEarlierOutput(@TempDir Path dir) throws IOException {
+    Path root = fixture(dir);
+    RichTest.CommandResult result = RichTest.runCommand(new xmvn.XmvnRoot(), "2gradle", "--convention-plugin", "--version-catalog",
+        root.toString());
+    assertEquals(0, result.exitCode, result.output);
+    assertTrue(Files.exists(root.resolve("buildSrc/build.gradle.kts")));
+    assertTrue(Files.exists(root.resolve("gradle/libs.versions.toml")));
+    result = RichTest.runCommand(new xmvn.XmvnRoot(), "2gradle", root.toString());
+    assertEquals(0, result.exitCode, result.output);
+    assertTrue(Files.notExists(root.resolve("buildSrc")));
+    assertTrue(Files.notExists(root.resolve("gradle/libs.versions.toml")));
+    // a catalog written by hand stays
+    Files.writeString(root.resolve("gradle/libs.versions.toml"), "[versions]\n");
+    result = RichTest.runCommand(new xmvn.XmvnRoot(), "2gradle", root.toString());
+    assertEquals(0, result.exitCode, result.output);
+    assertTrue(Files.exists(root.resolve("gradle/libs.versions.toml")));
+  }
+
+  @Test
+  void buildPassesArgumentsAfterDelimiterVerbatimAndTracksPluginRulesContent(@TempDir Path dir) throws IOException {
+    Path root = fixture(dir);
+    Path gradlew = root.resolve("gradlew");
+    Files.writeString(gradlew, "#!/bin/sh\nprintf '%s\\n' \"$@\" > gradle-args.txt\n");
+    gradlew.toFile().setExecutable(true);
+    Path rules = dir.resolve("rules.yaml");
+    Files.writeString(rules, "[]\n");
+    RichTest.CommandResult result = RichTest.runCommand(new xmvn.XmvnRoot(), "build", "--plugin-rules=" + rules, root.toString(),
+        "clean", "test", "--", "--max-workers", "4", "--offline");
+    assertEquals(0, result.exitCode, result.output);
+    assertEquals(List.of("--build-cache", "clean", "test", "--max-workers", "4", "--offline"),
+        Files.readAllLines(root.resolve("gradle-args.txt")));
+    Path fingerprint = root.resolve("target/xmvn-build.sha256");
+    String before = Files.readString(fingerprint);
+    Files.writeString(rules, "# same path, other rules\n[]\n");
+    result = RichTest.runCommand(new xmvn.XmvnRoot(), "build", "--configuration-cache", "--plugin-rules=" + rules, root.toString());
+    assertEquals(0, result.exitCode, result.output);
+    assertTrue(!before.equals(Files.readString(fingerprint)));
+    assertEquals(List.of("--build-cache", "--configuration-cache", "assemble", "test"), Files.readAllLines(root.resolve("gradle-args.txt")));
+  }
+
+  @Test
+  void sessionLocalRepositoryIsCanonical(@TempDir Path dir) throws IOException {
+    Path real = Files.createDirectories(dir.resolve("real/repository"));
+    Path link = Files.createSymbolicLink(dir.resolve("m2"), dir.resolve("real"));
+    String previous = System.getProperty("maven.repo.local");
+    try {
+      System.setProperty("maven.repo.local", link.resolve("repository").toString());
+      assertEquals(real.toRealPath(), new xmvn.PomLoaderSession(new xmvn.ToGradle()).localRepository());
+    } finally {
+      if (previous == null)
+        System.clearProperty("maven.repo.local");
+      else
+        System.setProperty("maven.repo.local", previous);
+    }
+  }
+
+  @Test
+  void settingsActiveByDefaultProfilesYieldToExplicitlyActiveOnes(@TempDir Path dir) throws IOException {
+    String profiles = """
+        <profile><id>default</id><activation><activeByDefault>true</activeByDefault></activation>
+          <repositories><repository><id>d</id><url>https://d</url></repository></repositories></profile>
+        <profile><id>extra</id>
+          <repositories><repository><id>e</id><url>https://e</url></repository></repositories></profile>
+        """;
+    Path defaults = dir.resolve("defaults.xml");
+    Files.writeString(defaults, "<settings><profiles>" + profiles + "</profiles></settings>");
+    assertEquals(List.of("d"), xmvn.MvnSettings.load(defaults).activeRepositories().stream().map(r -> r.id).toList());
+    Path explicit = dir.resolve("explicit.xml");
+    Files.writeString(explicit, "<settings><profiles>" + profiles + "</profiles><activeProfiles><activeProfile>extra</activeProfile></activeProfiles></settings>");
+    assertEquals(List.of("e"), xmvn.MvnSettings.load(explicit).activeRepositories().stream().map(r -> r.id).toList());
+  }
+
+  private static List<String> inserts(String output) {
+    Matcher matcher = Pattern.compile("\\] INSERT doc INTO (\\w+) ").matcher(output);
+    return matcher.results().map(m -> m.group(1)).toList();
+  }
+}
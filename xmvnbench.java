@@ -0,0 +1,280 @@
+//usr/bin/env jbang "$0" "$@" ; exit $?
+//Description: JMH benchmarks for xmvn pom loading and gradle generation on synthesized maven trees
+//DEPS org.openjdk.jmh:jmh-core:1.37
+//DEPS org.openjdk.jmh:jmh-generator-annprocess:1.37
+//DEPS info.picocli:picocli:4.7.7
+//DEPS com.fasterxml.jackson.dataformat:jackson-dataformat-xml:2.17.1
+//DEPS com.fasterxml.jackson.dataformat:jackson-dataformat-yaml:2.17.1
+//DEPS com.fasterxml.jackson.core:jackson-databind:2.17.1
+//DEPS com.fasterxml.jackson.core:jackson-annotations:2.17.1
+//DEPS org.zeroturnaround:zt-exec:1.12
+//DEPS one.util:streamex:0.8.2
+//DEPS com.google.guava:guava:32.1.2-jre
+//SOURCES xmvn.java
+//SOURCES com/namekis/utils/RichCli.java
+//SOURCES com/namekis/bench/XmvnBenchmark.java
+//FILES xmvn-graph.html
+//FILES xmvn-plugins.yaml
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.namekis.bench.XmvnBenchmark;
+
+import picocli.CommandLine;
+
+/**
+ * Benchmarks of the xmvn pipeline ({@link XmvnBenchmark}) on a synthesized tree of jar modules grouped under aggregators, with a
+ * parent holding properties, dependencyManagement and pluginManagement.
+ *
+ * <pre>
+ * jbang xmvnbench.java                       # all benchmarks, gc profiler, json to target/xmvnbench.json
+ * jbang xmvnbench.java generate -p modules=500 -f 1
+ * </pre>
+ *
+ * Arguments are JMH arguments; benchmark names are matched inside {@link XmvnBenchmark}. The gc profiler is always added so
+ * allocation rate regressions (gc.alloc.rate.norm, bytes per operation) show up next to the timings. The effective pom is
+ * generated once per trial with mvn, which must be on the path.
+ */
+public class xmvnbench implements XmvnBenchmark.Pipeline {
+  public static void main(String... args) throws Exception {
+    CommandLineOptions cli = new CommandLineOptions(args);
+    Path result = Path.of("target/xmvnbench.json");
+    Files.createDirectories(result.getParent());
+    var options = new OptionsBuilder().parent(cli).addProfiler(GCProfiler.class);
+    if (!cli.getResult().hasValue())
+      options.resultFormat(ResultFormatType.JSON).result(result.toString());
+    if (cli.getIncludes().isEmpty())
+      options.include(XmvnBenchmark.class.getName());
+    new Runner(options.build()).run();
+  }
+
+  /** jar modules per aggregator */
+  private static final int MODULES_PER_GROUP = 10;
+  private static final String[][] LIBRARIES = { { "org.slf4j", "slf4j-api", "slf4j.version", "2.0.7" },
+      { "com.google.guava", "guava", "guava.version", "32.1.2-jre" },
+      { "com.fasterxml.jackson.core", "jackson-databind", "jackson.version", "2.17.1" },
+      { "org.apache.commons", "commons-lang3", "commons-lang3.version", "3.14.0" },
+      { "junit", "junit", "junit.version", "4.13.2" } };
+
+  private Path root;
+  private xmvn.ToGradle cli;
+  private xmvn.PomLoaderSession session;
+  private xmvn.Project rootPom;
+  private List<xmvn.Project> jarModules;
+  private xmvn.GradleKtsGenerator.GradleModules gradleModules;
+  private File samplePom;
+
+  @Override
+  public void setup(int modules) throws IOException {
+    ((ch.qos.logback.classic.Logger) org.slf4j.LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME))
+        .setLevel(ch.qos.logback.classic.Level.WARN);
+    root = Files.createTempDirectory("xmvnbench");
+    generateTree(root, modules);
+    cli = new xmvn.ToGradle();
+    new CommandLine(cli).parseArgs(root.toString());
+    // mvn help:effective-pom once, then every load reuses target/effective-pom.xml
+    new xmvn.PomLoaderSession(cli).loadRootPom();
+    cli.forceGenerateEffectivePom = false;
+    session = new xmvn.PomLoaderSession(cli);
+    rootPom = session.loadRootPom();
+    jarModules = one.util.streamex.StreamEx.ofTree(rootPom, p -> one.util.streamex.StreamEx.of(p.children()))
+        .filter(p -> "jar".equals(p.packaging))
+        .toList();
+    gradleModules = xmvn.GradleKtsGenerator.GradleModules.index(rootPom);
+    samplePom = jarModules.get(jarModules.size() - 1).pomFile;
+  }
+
+  @Override
+  public void tearDown() throws IOException {
+    try (var files = Files.walk(root)) {
+      files.sorted(java.util.Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+    }
+  }
+
+  @Override
+  public Object parsePom() {
+    return session.parsePom(samplePom);
+  }
+
+  @Override
+  public Object loadRootPom() {
+    return new xmvn.PomLoaderSession(cli).loadRootPom();
+  }
+
+  @Override
+  public void resolveProperties(Consumer<Object> sink) {
+    for (xmvn.Project module : jarModules) {
+      for (String[] library : LIBRARIES)
+        sink.accept(xmvn.GradleKtsGenerator.resolveProperties("${" + library[2] + "}", module));
+    }
+  }
+
+  @Override
+  public void emitDeps(Consumer<Object> sink) {
+    for (xmvn.Project module : jarModules)
+      sink.accept(xmvn.GradleKtsGenerator.emitDeps(module, rootPom.context.effectivePom, gradleModules, cli));
+  }
+
+  @Override
+  public void generate(Consumer<Object> sink) {
+    for (xmvn.Project module : jarModules)
+      sink.accept(xmvn.GradleKtsGenerator.generate(module, rootPom.context.effectivePom, gradleModules, cli));
+  }
+
+  @Override
+  public Object toGraph() throws IOException {
+    xmvn.DependencyGraph graph = xmvn.DependencyGraph.of(rootPom);
+    new xmvn.ToGraph().writeGraphJson(new com.fasterxml.jackson.databind.ObjectMapper(), Writer.nullWriter(), graph, null);
+    return graph;
+  }
+
+  /**
+   * Writes a root pom (parent of everything: properties, dependencyManagement, pluginManagement), one aggregator per
+   * {@link #MODULES_PER_GROUP} modules and the jar modules. Each module depends on the previous one of its group, on the first
+   * module of the previous group and on a few managed libraries.
+   */
+  static void generateTree(Path root, int modules) throws IOException {
+    int groups = (modules + MODULES_PER_GROUP - 1) / MODULES_PER_GROUP;
+    StringBuilder properties = new StringBuilder("    <maven.compiler.source>17</maven.compiler.source>\n"
+        + "    <maven.compiler.target>17</maven.compiler.target>\n");
+    StringBuilder managed = new StringBuilder();
+    for (String[] library : LIBRARIES) {
+      properties.append("    <%s>%s</%s>\n".formatted(library[2], library[3], library[2]));
+      managed.append("""
+                <dependency>
+                  <groupId>%s</groupId>
+                  <artifactId>%s</artifactId>
+                  <version>${%s}</version>
+                </dependency>
+          """.formatted(library[0], library[1], library[2]));
+    }
+    List<String> groupNames = new ArrayList<>();
+    for (int g = 0; g < groups; g++)
+      groupNames.add("group" + g);
+    write(root, """
+        <project>
+          <modelVersion>4.0.0</modelVersion>
+          <groupId>bench</groupId>
+          <artifactId>root</artifactId>
+          <version>1.0-SNAPSHOT</version>
+          <packaging>pom</packaging>
+          <properties>
+        %s  </properties>
+          <modules>
+        %s  </modules>
+          <dependencyManagement>
+            <dependencies>
+        %s    </dependencies>
+          </dependencyManagement>
+          <build>
+            <pluginManagement>
+              <plugins>
+                <plugin>
+                  <groupId>org.apache.maven.plugins</groupId>
+                  <artifactId>maven-compiler-plugin</artifactId>
+                  <configuration>
+                    <source>${maven.compiler.source}</source>
+                    <target>${maven.compiler.target}</target>
+                  </configuration>
+                </plugin>
+              </plugins>
+            </pluginManagement>
+          </build>
+        </project>
+        """.formatted(properties, modulesXml(groupNames), managed));
+    int module = 0;
+    for (int g = 0; g < groups; g++) {
+      List<String> names = new ArrayList<>();
+      for (int m = 0; m < MODULES_PER_GROUP && module < modules; m++, module++)
+        names.add("m" + module);
+      Path groupDir = root.resolve(groupNames.get(g));
+      write(groupDir, """
+          <project>
+            <modelVersion>4.0.0</modelVersion>
+            <parent>
+              <groupId>bench</groupId>
+              <artifactId>root</artifactId>
+              <version>1.0-SNAPSHOT</version>
+            </parent>
+            <artifactId>%s</artifactId>
+            <packaging>pom</packaging>
+            <modules>
+          %s  </modules>
+          </project>
+          """.formatted(groupNames.get(g), modulesXml(names)));
+      for (int m = 0; m < names.size(); m++) {
+        StringBuilder dependencies = new StringBuilder();
+        if (m > 0)
+          dependencies.append(dependencyXml("bench", names.get(m - 1), "${project.version}", null));
+        if (g > 0)
+          dependencies.append(dependencyXml("bench", "m" + (g - 1) * MODULES_PER_GROUP, "${project.version}", null));
+        for (int l = 0; l < LIBRARIES.length; l++) {
+          if ((m + l) % 2 == 0)
+            dependencies.append(dependencyXml(LIBRARIES[l][0], LIBRARIES[l][1], null, "junit".equals(LIBRARIES[l][0]) ? "test" : null));
+        }
+        write(groupDir.resolve(names.get(m)), """
+            <project>
+              <modelVersion>4.0.0</modelVersion>
+              <parent>
+                <groupId>bench</groupId>
+                <artifactId>root</artifactId>
+                <version>1.0-SNAPSHOT</version>
+                <relativePath>../../pom.xml</relativePath>
+              </parent>
+              <artifactId>%s</artifactId>
+              <properties>
+                <module.name>%s</module.name>
+              </properties>
+              <dependencies>
+            %s  </dependencies>
+              <build>
+                <plugins>
+                  <plugin>
+                    <groupId>org.apache.maven.plugins</groupId>
+                    <artifactId>maven-jar-plugin</artifactId>
+                    <executions>
+                      <execution>
+                        <goals>
+                          <goal>test-jar</goal>
+                        </goals>
+                      </execution>
+                    </executions>
+                  </plugin>
+                </plugins>
+              </build>
+            </project>
+            """.formatted(names.get(m), names.get(m), dependencies));
+      }
+    }
+  }
+
+  private static String modulesXml(List<String> names) {
+    StringBuilder sb = new StringBuilder();
+    names.forEach(name -> sb.append("    <module>").append(name).append("</module>\n"));
+    return sb.toString();
+  }
+
+  private static String dependencyXml(String groupId, String artifactId, String version, String scope) {
+    return "    <dependency>\n      <groupId>%s</groupId>\n      <artifactId>%s</artifactId>\n%s%s    </dependency>\n".formatted(groupId,
+        artifactId, version != null ? "      <version>" + version + "</version>\n" : "",
+        scope != null ? "      <scope>" + scope + "</scope>\n" : "");
+  }
+
+  private static void write(Path dir, String pom) throws IOException {
+    Files.createDirectories(dir);
+    Files.writeString(dir.resolve("pom.xml"), pom);
+  }
+}
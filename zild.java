@@ -7,24 +7,117 @@
 //DEPS one.util:streamex:0.8.2
 //SOURCES com/namekis/utils/RichCli.java
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import javax.lang.model.element.Element;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 import com.namekis.utils.RichCli;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.IdentifierTree;
+import com.sun.source.tree.MemberSelectTree;
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+import com.sun.source.util.TreePathScanner;
+import com.sun.source.util.Trees;
+
+import one.util.streamex.EntryStream;
+import one.util.streamex.StreamEx;
 
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
@@ -40,13 +133,13 @@ public class zild {
   }
 
   @Command(name = "zild", mixinStandardHelpOptions = true, subcommands = { Lock.class, Run.class, Explain.class,
-      Scan.class }, version = "zild 0.1")
+      Scan.class, CacheServerCommand.class }, version = "zild 0.1")
   public static class ZildRoot extends CommonOptions implements Runnable {
     static final Logger log = LoggerFactory.getLogger(ZildRoot.class);
 
     @Override
     public void run() {
-      log.info("Use subcommands: lock | scan | run <task> | explain");
+      log.info("Use subcommands: lock | scan | run <task> | explain | cache-server");
     }
   }
 
@@ -81,41 +174,95 @@ public class zild {
     }
   }
 
-  @Command(name = "run", description = "Run a task from zild.lock.yaml")
+  @Command(name = "run", description = "Run a task (and the tasks it depends on) from zild.lock.yaml")
   public static class Run extends CommonOptions implements Callable<Integer> {
     static final Logger log = LoggerFactory.getLogger(Run.class);
     final ObjectMapper yaml = new ObjectMapper(new YAMLFactory());
 
     @Parameters(index = "0")
     String taskName;
-    @Option(names = "--module", defaultValue = "core")
+    @Option(names = "--module", description = "Run the task only in this module (path or id). Default: every module having it.")
     String module;
+    @Option(names = { "-j", "--threads" }, description = "Tasks run in parallel. Default: available processors.")
+    int threads = Runtime.getRuntime().availableProcessors();
+    @Option(names = "--cache", negatable = true, defaultValue = "true", fallbackValue = "true", description = "Skip tasks with a matching entry in .zild/cache and restore their outputs. Default: ${DEFAULT-VALUE}")
+    boolean cache = true;
+    @Option(names = "--remote-cache", description = "Http cache url (GET/PUT <url>/<key>), e.g. one started by `zild cache-server`")
+    URI remoteCache;
+    @Option(names = "--remote-cache-push", negatable = true, defaultValue = "true", fallbackValue = "true", description = "Upload results to the remote cache. Default: ${DEFAULT-VALUE}")
+    boolean remoteCachePush = true;
+    @Option(names = "--watch", description = "After the run keep watching module sources and re-run the affected tasks")
+    boolean watch;
 
     public Integer call() throws Exception {
       ZildLock lock = yaml.readValue(Files.newInputStream(Path.of("zild.lock.yaml")), ZildLock.class);
-      var mod = lock.modules.get(module);
-      if (mod == null || !mod.tasks.containsKey(taskName)) {
-        log.error("Task '{}' not found in module '{}'", taskName, module);
+      TaskGraph graph = TaskGraph.of(lock, Path.of("").toAbsolutePath());
+      List<TaskNode> targets = graph.find(module, taskName);
+      if (targets.isEmpty()) {
+        log.error("Task '{}' not found in module '{}'", taskName, module == null ? "*" : module);
         return 1;
       }
+      List<TaskNode> plan = graph.closure(targets);
+      try {
+        graph.checkPlan(plan);
+      } catch (IllegalStateException e) {
+        log.error(e.getMessage());
+        return 1;
+      }
+      log.info("Running {} tasks for {} on {} threads", plan.size(), targets, threads);
+      FileHasher hasher = FileHasher.open(graph.root.resolve(".zild/hashes.bin"));
+      TaskCache taskCache = cache ? new TaskCache(graph.root.resolve(".zild/cache"), graph.root, hasher) : null;
+      RemoteCache remote = taskCache != null && remoteCache != null
+          ? new RemoteCache(remoteCache, remoteCachePush, taskCache)
+          : null;
+      try (var executor = new TaskExecutor(threads, taskCache, remote, graph.root.resolve(".zild"), hasher)) {
+        boolean ok = executor.execute(plan);
+        hasher.save();
+        log.info("File hashes: {}", hasher.metrics);
+        if (watch)
+          watch(graph, plan, executor, hasher);
+        return ok ? 0 : 1;
+      } finally {
+        if (remote != null)
+          remote.close();
+      }
+    }
 
-      var task = mod.tasks.get(taskName);
-      Path input = Path.of(".zild", "plugin-input.yaml");
-      Files.createDirectories(input.getParent());
-      Files.writeString(input, yaml.writerWithDefaultPrettyPrinter().writeValueAsString(task));
-
-      List<String> cmd = List.of(task.tool, task.script);
-      log.info("Running task '{}': {}", taskName, cmd);
-      Process proc = new ProcessBuilder(cmd).inheritIO().start();
-      return proc.waitFor();
+    /** Re-runs the tasks reading changed files and their dependents, with the same executor, hashes and compilers. */
+    void watch(TaskGraph graph, List<TaskNode> plan, TaskExecutor executor, FileHasher hasher) throws Exception {
+      try (TaskWatcher watcher = new TaskWatcher(graph, plan)) {
+        log.info("Watching {} directories for changes, Ctrl-C to stop", watcher.directories());
+        while (true) {
+          List<TaskNode> affected = watcher.next();
+          if (affected.isEmpty())
+            continue;
+          long start = System.nanoTime();
+          boolean ok = executor.execute(affected);
+          hasher.save();
+          log.info("{} {} in {} ms", ok ? "Rebuilt" : "Failed", affected, (System.nanoTime() - start) / 1_000_000);
+        }
+      }
     }
   }
 
-    @Command(name = "explain", description = "Prints task per module from lock file")
+    @Command(name = "explain", description = "Prints task per module from lock file, or the critical path of the last run")
   public static class Explain extends CommonOptions implements Callable<Integer> {
     final ObjectMapper yaml = new ObjectMapper(new YAMLFactory());
 
+    @Option(names = "--critical-path", description = "Longest dependency chain and idle worker time from the trace of the last `zild run`")
+    boolean criticalPath;
+    @Option(names = "--trace-file", defaultValue = ".zild/trace.json", description = "Trace to analyze. Default: ${DEFAULT-VALUE}")
+    Path traceFile;
+
     public Integer call() throws Exception {
+      if (criticalPath) {
+        if (!Files.exists(traceFile)) {
+          System.out.println("No trace at " + traceFile + ", run `zild run <task>` first");
+          return 1;
+        }
+        TaskTrace.read(traceFile).printCriticalPath();
+        return 0;
+      }
       ZildLock lock = yaml.readValue(Files.newInputStream(Path.of("zild.lock.yaml")), ZildLock.class);
       for (var entry : lock.modules.entrySet()) {
         System.out.printf("Module: %s (%s)\n", entry.getKey(), entry.getValue().template);
@@ -126,6 +273,25 @@ public class zild {
     }
   }
 
+  @Command(name = "cache-server", description = "Serve a directory as http task cache for `zild run --remote-cache`")
+  public static class CacheServerCommand extends CommonOptions implements Callable<Integer> {
+    @Option(names = "--bind", defaultValue = "127.0.0.1", description = "Address to listen on. PUTs are not authenticated: "
+        + "bind a shared interface (e.g. 0.0.0.0) only on a trusted network. Default: ${DEFAULT-VALUE}")
+    String bind;
+    @Option(names = "--port", defaultValue = "5071")
+    int port;
+    @Option(names = "--dir", defaultValue = ".zild/remote-cache")
+    Path dir;
+    @Option(names = "--threads", defaultValue = "16")
+    int threads;
+
+    public Integer call() throws Exception {
+      CacheServer.start(bind, port, dir, threads);
+      Thread.currentThread().join();
+      return 0;
+    }
+  }
+
   @Command(name = "scan", description = "Scan current directory for Maven modules (pom.xml) and generate zild.yaml")
   public static class Scan extends CommonOptions implements Callable<Integer> {
     static final Logger log = LoggerFactory.getLogger(Scan.class);
@@ -173,6 +339,1540 @@ public class zild {
     }
   }
 
+  /** A task of a module with its inputs/outputs resolved against the project root and the tasks producing its inputs. */
+  public static class TaskNode {
+    public final ZildLock.ResolvedModule module;
+    public final String name;
+    public final ZildLock.Task task;
+    public final List<Path> inputs = new ArrayList<>();
+    public final List<Path> outputs = new ArrayList<>();
+    public final Set<TaskNode> deps = new LinkedHashSet<>();
+
+    TaskNode(ZildLock.ResolvedModule module, String name, ZildLock.Task task) {
+      this.module = module;
+      this.name = name;
+      this.task = task;
+    }
+
+    public String id() {
+      return module.path + ":" + name;
+    }
+
+    @Override
+    public String toString() {
+      return id();
+    }
+  }
+
+  /**
+   * Task DAG of a lock file. A task depends on
+   * <ul>
+   * <li>the task named by an input like {@code core.jar.outputs} (module path, id or last path segment, then task name) -
+   * the references emitted by mvn2zild;
+   * <li>any task with an output containing one of its input paths (test-compile reading target/classes of compile).
+   * </ul>
+   * Relative paths starting with the module path are relative to the project root, the others to the module.
+   */
+  public static class TaskGraph {
+    static final Logger log = LoggerFactory.getLogger(TaskGraph.class);
+    public final Path root;
+    public final Map<String, TaskNode> nodes = new LinkedHashMap<>();
+
+    TaskGraph(Path root) {
+      this.root = root;
+    }
+
+    public static TaskGraph of(ZildLock lock, Path root) {
+      TaskGraph graph = new TaskGraph(root);
+      for (ZildLock.ResolvedModule module : lock.modules.values()) {
+        for (var entry : module.tasks.entrySet()) {
+          TaskNode node = new TaskNode(module, entry.getKey(), entry.getValue());
+          for (String output : nullSafe(node.task.outputs))
+            node.outputs.add(graph.resolve(module, output));
+          graph.nodes.put(node.id(), node);
+        }
+      }
+      for (TaskNode node : graph.nodes.values()) {
+        for (String input : nullSafe(node.task.inputs)) {
+          if (input.endsWith(".outputs")) {
+            TaskNode producer = graph.reference(input.substring(0, input.length() - ".outputs".length()));
+            if (producer != null) {
+              node.deps.add(producer);
+              node.inputs.addAll(producer.outputs);
+              continue;
+            }
+            log.warn("{}: no task for reference {}, used as a path", node, input);
+          }
+          node.inputs.add(graph.resolve(node.module, input));
+        }
+      }
+      for (TaskNode node : graph.nodes.values())
+        for (TaskNode other : graph.nodes.values())
+          if (other != node && node.inputs.stream().anyMatch(in -> other.outputs.stream().anyMatch(in::startsWith)))
+            node.deps.add(other);
+      graph.closure(graph.nodes.values());
+      return graph;
+    }
+
+    Path resolve(ZildLock.ResolvedModule module, String path) {
+      String modulePath = module.path == null ? "." : module.path;
+      if (modulePath.equals(".") || path.equals(modulePath) || path.startsWith(modulePath + "/"))
+        return root.resolve(path).normalize();
+      return root.resolve(modulePath).resolve(path).normalize();
+    }
+
+    /** {@code <module>.<task>} where module is a module path, id or the last segment of its path. */
+    TaskNode reference(String ref) {
+      int dot = ref.lastIndexOf('.');
+      if (dot <= 0)
+        return null;
+      String moduleName = ref.substring(0, dot);
+      String taskName = ref.substring(dot + 1);
+      return nodes.values().stream().filter(n -> n.name.equals(taskName) && matches(n.module, moduleName)).findFirst()
+          .orElse(null);
+    }
+
+    static boolean matches(ZildLock.ResolvedModule module, String name) {
+      return name.equals(module.path) || name.equals(module.id)
+          || (module.id != null && module.id.endsWith(":" + name))
+          || (module.path != null && module.path.endsWith("/" + name));
+    }
+
+    public List<TaskNode> find(String module, String taskName) {
+      return nodes.values().stream()
+          .filter(n -> n.name.equals(taskName) && (module == null || matches(n.module, module)))
+          .toList();
+    }
+
+    /**
+     * Fails when a planned task cannot run (no tool and a process that is not built in) or shares an output with another
+     * task: restoring one from the cache replaces the output, deleting the files of the other.
+     */
+    public void checkPlan(List<TaskNode> plan) {
+      for (TaskNode node : plan) {
+        if (node.task.tool == null && !TaskExecutor.BUILT_IN.contains(String.valueOf(node.task.process)))
+          throw new IllegalStateException("Task %s has no tool and process '%s' is not built in (built in: %s)"
+              .formatted(node, node.task.process, TaskExecutor.BUILT_IN));
+        for (TaskNode other : nodes.values())
+          for (Path output : node.outputs)
+            for (Path otherOutput : other.outputs)
+              if (other != node && (output.startsWith(otherOutput) || otherOutput.startsWith(output)))
+                throw new IllegalStateException("Tasks %s and %s share the output %s: give each task its own output directory"
+                    .formatted(node, other, relative(output.startsWith(otherOutput) ? otherOutput : output)));
+      }
+    }
+
+    String relative(Path path) {
+      return root.relativize(path).toString().replace('\\', '/');
+    }
+
+    /** The targets and everything they depend on, dependencies first. Fails on cycles. */
+    public List<TaskNode> closure(Collection<TaskNode> targets) {
+      Set<TaskNode> done = new LinkedHashSet<>();
+      Deque<TaskNode> path = new ArrayDeque<>();
+      for (TaskNode target : targets)
+        visit(target, done, path);
+      return new ArrayList<>(done);
+    }
+
+    private static void visit(TaskNode node, Set<TaskNode> done, Deque<TaskNode> path) {
+      if (done.contains(node))
+        return;
+      if (path.contains(node))
+        throw new IllegalStateException("Task cycle: " + StreamEx.of(path.descendingIterator()).dropWhile(n -> n != node)
+            .append(node).joining(" -> "));
+      path.push(node);
+      for (TaskNode dep : node.deps)
+        visit(dep, done, path);
+      path.pop();
+      done.add(node);
+    }
+  }
+
+  /**
+   * Content addressed task outputs under {@code .zild/cache/<2 hex>/<key>/outputs/<index>}. The key is the sha-256 of the
+   * command line, the content of the tool and script, flags, env, output paths and the content of every input file.
+   * Restoring replaces each output, so files of deleted sources do not survive a hit; {@link TaskGraph#checkPlan} makes sure
+   * no other task writes there.
+   */
+  public static class TaskCache {
+    final Path dir;
+    final Path root;
+    final FileHasher hasher;
+
+    public TaskCache(Path dir, Path root, FileHasher hasher) {
+      this.dir = dir;
+      this.root = root;
+      this.hasher = hasher;
+    }
+
+    /** {@code inputBytes}: receives the size of the hashed input files. */
+    public String key(TaskNode node, List<String> command, LongAdder inputBytes) throws IOException {
+      MessageDigest digest = sha256();
+      update(digest, "command", command);
+      for (Path executable : executables(node.task)) {
+        update(digest, "executable", List.of(executable.toString()));
+        digest.update(ByteBuffer.allocate(Long.BYTES).putLong(hasher.hash(executable)).array());
+      }
+      if (node.task.tool == null)
+        update(digest, "java.version", List.of(System.getProperty("java.version")));
+      update(digest, "flags", nullSafe(node.task.flags));
+      update(digest, "mainClass", List.of(String.valueOf(node.task.mainClass)));
+      update(digest, "env", new TreeMap<>(node.task.env == null ? Map.of() : node.task.env).entrySet().stream()
+          .map(e -> e.getKey() + "=" + e.getValue()).toList());
+      update(digest, "outputs", node.outputs.stream().map(this::relative).toList());
+      for (Path input : node.inputs) {
+        update(digest, "input", List.of(relative(input)));
+        for (var file : hasher.hashTree(input, f -> true, inputBytes).entrySet()) {
+          update(digest, "file", List.of(relative(file.getKey())));
+          digest.update(ByteBuffer.allocate(Long.BYTES).putLong(file.getValue()).array());
+        }
+      }
+      return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /** The script (relative to the root) and the tool (a path or found on PATH) when they are files. */
+    List<Path> executables(ZildLock.Task task) {
+      List<Path> executables = new ArrayList<>();
+      if (task.tool != null) {
+        Path tool = root.resolve(task.tool);
+        if (!Files.isRegularFile(tool) && !task.tool.contains("/") && !task.tool.contains("\\"))
+          tool = StreamEx.split(Objects.toString(System.getenv("PATH"), ""), File.pathSeparator).map(d -> Path.of(d, task.tool))
+              .findFirst(Files::isRegularFile).orElse(tool);
+        if (Files.isRegularFile(tool))
+          executables.add(tool);
+      }
+      if (task.script != null && Files.isRegularFile(root.resolve(task.script)))
+        executables.add(root.resolve(task.script).normalize());
+      return executables;
+    }
+
+    Path entry(String key) {
+      return dir.resolve(key.substring(0, 2)).resolve(key);
+    }
+
+    /** Replaces the outputs with the cached ones; the bytes copied, or -1 when there is no entry. */
+    public long restore(String key, List<Path> outputs) throws IOException {
+      Path entry = entry(key);
+      if (!Files.isDirectory(entry))
+        return -1;
+      long bytes = 0;
+      for (int i = 0; i < outputs.size(); i++) {
+        Path cached = entry.resolve("outputs").resolve(Integer.toString(i));
+        deleteTree(outputs.get(i));
+        if (Files.exists(cached))
+          bytes += copyTree(cached, outputs.get(i));
+      }
+      return bytes;
+    }
+
+    /**
+     * Copies the outputs into a temporary entry then moves it in place, so readers never see half written entries. Returns
+     * the bytes copied, 0 when the entry already existed.
+     */
+    public long store(String key, List<Path> outputs) throws IOException {
+      Path entry = entry(key);
+      if (Files.isDirectory(entry))
+        return 0;
+      Path tmp = dir.resolve("tmp").resolve(key + "-" + Thread.currentThread().getId());
+      deleteTree(tmp);
+      long bytes = 0;
+      for (int i = 0; i < outputs.size(); i++) {
+        if (Files.exists(outputs.get(i)))
+          bytes += copyTree(outputs.get(i), tmp.resolve("outputs").resolve(Integer.toString(i)));
+      }
+      Files.createDirectories(tmp.resolve("outputs"));
+      publish(tmp, key);
+      return bytes;
+    }
+
+    private void publish(Path tmp, String key) throws IOException {
+      Path entry = entry(key);
+      Files.createDirectories(entry.getParent());
+      try {
+        Files.move(tmp, entry, StandardCopyOption.ATOMIC_MOVE);
+      } catch (FileAlreadyExistsException | DirectoryNotEmptyException e) {
+        deleteTree(tmp);
+      }
+    }
+
+    /** Last entry of the archives: the key and the sha-256 of the entries before it. */
+    static final String SEAL = "zild-entry.sha256";
+
+    /** The entry as a zip ending with the {@link #SEAL}, the body of remote cache PUTs. */
+    public byte[] pack(String key) throws IOException {
+      Path entry = entry(key);
+      var bytes = new ByteArrayOutputStream();
+      MessageDigest digest = sha256();
+      try (var zip = new ZipOutputStream(bytes); var files = Files.walk(entry)) {
+        for (Path file : files.filter(Files::isRegularFile).sorted().toList()) {
+          String name = entry.relativize(file).toString().replace('\\', '/');
+          byte[] content = Files.readAllBytes(file);
+          update(digest, "file", List.of(name));
+          digest.update(content);
+          zip.putNextEntry(new ZipEntry(name));
+          zip.write(content);
+          zip.closeEntry();
+        }
+        zip.putNextEntry(new ZipEntry(SEAL));
+        zip.write((key + " " + HexFormat.of().formatHex(digest.digest())).getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+      }
+      return bytes.toByteArray();
+    }
+
+    /**
+     * Installs a zip fetched from the remote cache as the local entry. It is unpacked aside and published only when its
+     * {@link #SEAL} matches the key and the content: anything else (an html page, a truncated body) is an IOException and
+     * leaves no entry behind.
+     */
+    public void unpack(String key, byte[] archive) throws IOException {
+      Path tmp = dir.resolve("tmp").resolve(key + "-" + Thread.currentThread().getId());
+      deleteTree(tmp);
+      try {
+        Files.createDirectories(tmp.resolve("outputs"));
+        MessageDigest digest = sha256();
+        String seal = null;
+        try (var zip = new ZipInputStream(new ByteArrayInputStream(archive))) {
+          for (ZipEntry zipEntry; (zipEntry = zip.getNextEntry()) != null;) {
+            byte[] content = zip.readAllBytes();
+            if (seal != null)
+              throw new IOException("entries after the seal");
+            if (zipEntry.getName().equals(SEAL)) {
+              seal = new String(content, StandardCharsets.UTF_8);
+              continue;
+            }
+            Path file = tmp.resolve(zipEntry.getName()).normalize();
+            if (!file.startsWith(tmp))
+              throw new IOException("bad entry " + zipEntry.getName());
+            update(digest, "file", List.of(zipEntry.getName()));
+            digest.update(content);
+            Files.createDirectories(file.getParent());
+            Files.write(file, content);
+          }
+        }
+        if (seal == null)
+          throw new IOException("not a zild cache archive (no " + SEAL + ")");
+        if (!seal.equals(key + " " + HexFormat.of().formatHex(digest.digest())))
+          throw new IOException("content does not match " + SEAL);
+      } catch (IOException e) {
+        deleteTree(tmp);
+        throw new IOException("Remote cache archive " + key + ": " + e.getMessage(), e);
+      }
+      publish(tmp, key);
+    }
+
+    String relative(Path path) {
+      return (path.startsWith(root) ? root.relativize(path) : path).toString().replace('\\', '/');
+    }
+
+    static void update(MessageDigest digest, String field, List<String> values) {
+      digest.update((field + "\0" + values.size() + "\0").getBytes(StandardCharsets.UTF_8));
+      for (String value : values)
+        digest.update((value + "\0").getBytes(StandardCharsets.UTF_8));
+    }
+
+    static MessageDigest sha256() {
+      try {
+        return MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    /** The bytes copied. */
+    static long copyTree(Path from, Path to) throws IOException {
+      long bytes = 0;
+      try (var files = Files.walk(from)) {
+        for (Path file : files.toList()) {
+          Path target = to.resolve(from.relativize(file).toString());
+          if (Files.isDirectory(file)) {
+            Files.createDirectories(target);
+          } else {
+            Files.createDirectories(target.getParent());
+            Files.copy(file, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+            bytes += Files.size(target);
+          }
+        }
+      }
+      return bytes;
+    }
+
+    static void deleteTree(Path path) throws IOException {
+      if (!Files.exists(path))
+        return;
+      try (var files = Files.walk(path)) {
+        for (Path file : files.sorted(Comparator.reverseOrder()).toList())
+          Files.delete(file);
+      }
+    }
+  }
+
+  /**
+   * Task spans of one execution in chrome trace-event json (chrome://tracing, ui.perfetto.dev): a complete event per task,
+   * from its cache lookup to its end, on the worker that finished it, with status (cache, remote, run, failed), input/output
+   * bytes and dependencies as args. The bytes are those hashed for the cache key and copied to or from the cache (0 with
+   * {@code --no-cache}), nothing is walked again for the trace. Written to {@code .zild/trace.json}, read back by {@code zild explain --critical-path}.
+   */
+  public static class TaskTrace {
+    public record Span(String task, long thread, String threadName, String status, long start, long end, long bytesIn,
+        long bytesOut, List<String> deps) {
+      long duration() {
+        return end - start;
+      }
+    }
+
+    final long origin = System.nanoTime();
+    final int threads;
+    final Queue<Span> spans = new ConcurrentLinkedQueue<>();
+
+    public TaskTrace(int threads) {
+      this.threads = threads;
+    }
+
+    public void record(TaskNode node, long startNanos, String status, long bytesIn, long bytesOut) {
+      Thread thread = Thread.currentThread();
+      spans.add(new Span(node.id(), thread.getId(), thread.getName(), status, (startNanos - origin) / 1000,
+          (System.nanoTime() - origin) / 1000, bytesIn, bytesOut, StreamEx.of(node.deps).map(TaskNode::id).toList()));
+    }
+
+    public void write(Path file) throws IOException {
+      ObjectMapper json = new ObjectMapper();
+      ObjectNode root = json.createObjectNode();
+      ArrayNode events = root.putArray("traceEvents");
+      events.addObject().put("name", "process_name").put("ph", "M").put("pid", 1).putObject("args").put("name", "zild");
+      StreamEx.of(spans).distinct(Span::thread).forEach(s -> events.addObject().put("name", "thread_name").put("ph", "M")
+          .put("pid", 1).put("tid", s.thread()).putObject("args").put("name", s.threadName()));
+      for (Span span : spans) {
+        ObjectNode event = events.addObject().put("name", span.task()).put("cat", span.status()).put("ph", "X")
+            .put("ts", span.start()).put("dur", span.duration()).put("pid", 1).put("tid", span.thread());
+        ObjectNode args = event.putObject("args").put("status", span.status()).put("bytesIn", span.bytesIn())
+            .put("bytesOut", span.bytesOut());
+        span.deps().forEach(args.putArray("deps")::add);
+      }
+      root.putObject("otherData").put("threads", threads);
+      Files.createDirectories(file.getParent());
+      json.writerWithDefaultPrettyPrinter().writeValue(file.toFile(), root);
+    }
+
+    public static TaskTrace read(Path file) throws IOException {
+      JsonNode root = new ObjectMapper().readTree(file.toFile());
+      TaskTrace trace = new TaskTrace(root.path("otherData").path("threads").asInt(1));
+      Map<Long, String> threadNames = new HashMap<>();
+      for (JsonNode event : root.path("traceEvents")) {
+        if (event.path("ph").asText().equals("M") && event.path("name").asText().equals("thread_name"))
+          threadNames.put(event.path("tid").asLong(), event.path("args").path("name").asText());
+      }
+      for (JsonNode event : root.path("traceEvents")) {
+        if (!event.path("ph").asText().equals("X"))
+          continue;
+        JsonNode args = event.path("args");
+        long start = event.path("ts").asLong();
+        trace.spans.add(new Span(event.path("name").asText(), event.path("tid").asLong(),
+            threadNames.get(event.path("tid").asLong()), args.path("status").asText(), start,
+            start + event.path("dur").asLong(), args.path("bytesIn").asLong(), args.path("bytesOut").asLong(),
+            StreamEx.of(args.path("deps").elements()).map(JsonNode::asText).toList()));
+      }
+      return trace;
+    }
+
+    /** Longest chain of recorded tasks by duration, following dependencies: the build time with unlimited workers. */
+    public List<Span> criticalPath() {
+      Map<String, Span> byTask = StreamEx.of(spans).toMap(Span::task, s -> s, (a, b) -> a);
+      Map<String, Long> length = new HashMap<>();
+      Map<String, Span> previous = new HashMap<>();
+      for (Span span : StreamEx.of(spans).sortedByLong(Span::start)) {
+        Span longest = StreamEx.of(span.deps()).map(byTask::get).nonNull().filter(d -> length.containsKey(d.task()))
+            .maxByLong(d -> length.get(d.task())).orElse(null);
+        length.put(span.task(), span.duration() + (longest == null ? 0 : length.get(longest.task())));
+        if (longest != null)
+          previous.put(span.task(), longest);
+      }
+      List<Span> path = new ArrayList<>();
+      Span last = StreamEx.of(spans).maxByLong(s -> length.getOrDefault(s.task(), 0L)).orElse(null);
+      for (Span span = last; span != null; span = previous.get(span.task()))
+        path.add(0, span);
+      return path;
+    }
+
+    /** Time between the end of the last dependency (or the trace start) and the span start. */
+    public long waitBefore(Span span) {
+      long origin = StreamEx.of(spans).mapToLong(Span::start).min().orElse(0);
+      return span.start() - StreamEx.of(spans).filter(s -> span.deps().contains(s.task())).mapToLong(Span::end).max()
+          .orElse(origin);
+    }
+
+    public void printCriticalPath() {
+      if (spans.isEmpty()) {
+        System.out.println("No tasks in trace");
+        return;
+      }
+      long wall = StreamEx.of(spans).mapToLong(Span::end).max().getAsLong()
+          - StreamEx.of(spans).mapToLong(Span::start).min().getAsLong();
+      long busy = StreamEx.of(spans).mapToLong(Span::duration).sum();
+      List<Span> path = criticalPath();
+      long chain = StreamEx.of(path).mapToLong(Span::duration).sum();
+      System.out.printf("Trace: %d tasks on %d workers, wall %.3f s%n", spans.size(), threads, wall / 1e6);
+      System.out.printf("Critical path: %d tasks, %.3f s (%.0f%% of wall)%n", path.size(), chain / 1e6,
+          wall == 0 ? 0 : 100.0 * chain / wall);
+      System.out.printf("  %9s %9s %9s  %-7s %s%n", "start", "dur", "wait", "status", "task");
+      long origin = StreamEx.of(spans).mapToLong(Span::start).min().getAsLong();
+      for (Span span : path)
+        System.out.printf("  %9.3f %9.3f %9.3f  %-7s %s%n", (span.start() - origin) / 1e6, span.duration() / 1e6,
+            waitBefore(span) / 1e6, span.status(), span.task());
+      long idle = Math.max(0, threads * wall - busy);
+      System.out.printf("Workers: busy %.3f s, idle %.3f s (%.0f%%), average parallelism %.2f of %d%n", busy / 1e6,
+          idle / 1e6, wall == 0 ? 0 : 100.0 * idle / (threads * wall), wall == 0 ? 0 : (double) busy / wall, threads);
+      System.out.printf("Statuses: %s%n", StreamEx.of(spans).groupingBy(Span::status, TreeMap::new, Collectors.counting()));
+    }
+  }
+
+  /**
+   * Watches the source inputs of a plan (module {@code layout.source} and task inputs not produced by other tasks) and
+   * turns changes into the affected tasks plus everything downstream of them. Changes under task outputs are ignored.
+   */
+  public static class TaskWatcher implements AutoCloseable {
+    static final Logger log = LoggerFactory.getLogger(TaskWatcher.class);
+    static final long DEBOUNCE_MILLIS = 100;
+    final List<TaskNode> plan;
+    final Map<TaskNode, List<Path>> sources = new LinkedHashMap<>();
+    final List<Path> outputs;
+    final WatchService watchService;
+    final Map<WatchKey, Path> dirs = new HashMap<>();
+
+    public TaskWatcher(TaskGraph graph, List<TaskNode> plan) throws IOException {
+      this.plan = plan;
+      this.outputs = StreamEx.of(graph.nodes.values()).flatCollection(n -> n.outputs).distinct().toList();
+      this.watchService = graph.root.getFileSystem().newWatchService();
+      for (TaskNode node : plan) {
+        List<Path> watched = StreamEx.of(node.inputs).remove(this::isOutput).toMutableList();
+        if (node.module.layout != null && node.module.layout.source != null)
+          watched.add(graph.root.resolve(node.module.layout.source).normalize());
+        sources.put(node, watched);
+        for (Path path : watched)
+          register(Files.isDirectory(path) ? path : path.getParent());
+      }
+    }
+
+    public int directories() {
+      return dirs.size();
+    }
+
+    boolean isOutput(Path path) {
+      return outputs.stream().anyMatch(path::startsWith);
+    }
+
+    void register(Path root) throws IOException {
+      if (root == null || !Files.isDirectory(root) || isOutput(root))
+        return;
+      try (var tree = Files.walk(root)) {
+        for (Path dir : tree.filter(Files::isDirectory).filter(d -> !isOutput(d)).toList()) {
+          if (!dirs.containsValue(dir))
+            dirs.put(dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE), dir);
+        }
+      }
+    }
+
+    /** Blocks for the next batch of changes (quiet for {@link #DEBOUNCE_MILLIS}); affected tasks in plan order. */
+    public List<TaskNode> next() throws IOException, InterruptedException {
+      Set<Path> changed = new HashSet<>();
+      WatchKey key = watchService.take();
+      do {
+        Path dir = dirs.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+          if (dir == null)
+            continue;
+          Path path = event.kind() == StandardWatchEventKinds.OVERFLOW ? dir : dir.resolve((Path) event.context());
+          if (isOutput(path))
+            continue;
+          if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path))
+            register(path);
+          changed.add(path);
+        }
+        if (!key.reset())
+          dirs.remove(key);
+      } while ((key = watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS)) != null);
+      if (!changed.isEmpty())
+        log.info("Changed: {}", changed.size() <= 3 ? changed : changed.size() + " files");
+      Set<TaskNode> affected = new LinkedHashSet<>();
+      for (TaskNode node : plan) {
+        boolean reads = sources.get(node).stream()
+            .anyMatch(source -> changed.stream().anyMatch(c -> c.startsWith(source) || source.startsWith(c)));
+        if (reads || node.deps.stream().anyMatch(affected::contains))
+          affected.add(node);
+      }
+      return new ArrayList<>(affected);
+    }
+
+    @Override
+    public void close() throws IOException {
+      watchService.close();
+    }
+  }
+
+  /**
+   * Shared cache over http: {@code GET/PUT <url>/<key>} with the zipped local entry as body, in the spirit of the gradle and
+   * bazel http caches. Lookups are asynchronous requests. Uploads are packed and sent in the background by
+   * {@link #UPLOAD_THREADS} threads and awaited by {@link #close()}. Remote errors are logged, they never fail the build.
+   */
+  public static class RemoteCache implements AutoCloseable {
+    static final Logger log = LoggerFactory.getLogger(RemoteCache.class);
+    static final int UPLOAD_THREADS = 4;
+    final URI base;
+    final boolean push;
+    final TaskCache cache;
+    final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+    final ExecutorService uploader = Executors.newFixedThreadPool(UPLOAD_THREADS, r -> {
+      Thread thread = new Thread(r, "zild-upload");
+      thread.setDaemon(true);
+      return thread;
+    });
+    final Set<CompletableFuture<?>> uploads = ConcurrentHashMap.newKeySet();
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+    final LongAdder downloaded = new LongAdder();
+    final LongAdder uploaded = new LongAdder();
+    /** Set on the first connection failure: the build goes on with the local cache only. */
+    volatile boolean unreachable;
+
+    public RemoteCache(URI base, boolean push, TaskCache cache) {
+      this.base = base.toString().endsWith("/") ? base : URI.create(base + "/");
+      this.push = push;
+      this.cache = cache;
+    }
+
+    /** The zipped entry, or null on a miss or error. */
+    public CompletableFuture<byte[]> fetch(String key) {
+      if (unreachable)
+        return CompletableFuture.completedFuture(null);
+      HttpRequest request = HttpRequest.newBuilder(base.resolve(key)).timeout(Duration.ofSeconds(30)).GET().build();
+      return client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray()).handle((response, error) -> {
+        if (error != null || response.statusCode() != 200) {
+          if (error != null && unreachable(error))
+            return null;
+          if (error != null || response.statusCode() != 404)
+            log.warn("Remote cache GET {}: {}", key, error != null ? error.toString() : "http " + response.statusCode());
+          misses.increment();
+          return null;
+        }
+        hits.increment();
+        downloaded.add(response.body().length);
+        return response.body();
+      });
+    }
+
+    /** True for connection failures (refused, timed out), also when wrapped by the async client. */
+    boolean unreachable(Throwable error) {
+      Throwable cause = error;
+      while (cause != null && !(cause instanceof ConnectException || cause instanceof HttpConnectTimeoutException))
+        cause = cause.getCause();
+      if (cause == null)
+        return false;
+      if (!unreachable) {
+        unreachable = true;
+        log.warn("Remote cache {} unreachable, continuing without it: {}", base, error.toString());
+      }
+      return true;
+    }
+
+    public void upload(String key) {
+      if (!push || unreachable)
+        return;
+      CompletableFuture<Void> upload = CompletableFuture.runAsync(() -> {
+        try {
+          byte[] body = cache.pack(key);
+          HttpRequest request = HttpRequest.newBuilder(base.resolve(key)).timeout(Duration.ofSeconds(60))
+              .header("Content-Type", "application/zip").PUT(HttpRequest.BodyPublishers.ofByteArray(body)).build();
+          int status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+          if (status / 100 != 2)
+            log.warn("Remote cache PUT {}: http {}", key, status);
+          else
+            uploaded.add(body.length);
+        } catch (IOException e) {
+          if (!unreachable(e))
+            log.warn("Remote cache PUT {}: {}", key, e.toString());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }, uploader);
+      uploads.add(upload);
+      upload.whenComplete((v, e) -> uploads.remove(upload));
+    }
+
+    /** Waits for the pending uploads. */
+    @Override
+    public void close() {
+      CompletableFuture.allOf(uploads.toArray(CompletableFuture[]::new)).join();
+      uploader.shutdown();
+      log.info("Remote cache {}: {} hits, {} misses, {} KB down, {} KB up", base, hits.sum(), misses.sum(),
+          downloaded.sum() / 1024, uploaded.sum() / 1024);
+    }
+  }
+
+  /**
+   * Minimal http cache server on the jdk http server: {@code GET/PUT /<sha-256 hex>} stored as files under a directory.
+   * Enough for tests and small teams; run it with {@code zild cache-server} or embed it with {@link #start}. Anyone who can
+   * reach it can write entries, so it listens on loopback unless told otherwise.
+   */
+  public static class CacheServer {
+    static final Logger log = LoggerFactory.getLogger(CacheServer.class);
+    static final java.util.regex.Pattern KEY = java.util.regex.Pattern.compile("[0-9a-f]{64}");
+
+    public static HttpServer start(String bind, int port, Path dir, int threads) throws IOException {
+      Files.createDirectories(dir);
+      HttpServer server = HttpServer.create(new InetSocketAddress(bind, port), 0);
+      server.setExecutor(Executors.newFixedThreadPool(threads));
+      server.createContext("/", exchange -> {
+        try (exchange) {
+          String key = exchange.getRequestURI().getPath().substring(1);
+          if (!KEY.matcher(key).matches()) {
+            exchange.sendResponseHeaders(400, -1);
+            return;
+          }
+          Path file = dir.resolve(key.substring(0, 2)).resolve(key);
+          switch (exchange.getRequestMethod()) {
+          case "GET", "HEAD" -> {
+            if (!Files.exists(file)) {
+              exchange.sendResponseHeaders(404, -1);
+              return;
+            }
+            boolean head = exchange.getRequestMethod().equals("HEAD");
+            exchange.sendResponseHeaders(200, head ? -1 : Files.size(file));
+            if (!head)
+              Files.copy(file, exchange.getResponseBody());
+          }
+          case "PUT" -> {
+            Files.createDirectories(file.getParent());
+            Path tmp = file.resolveSibling(key + "." + Thread.currentThread().getId() + ".tmp");
+            Files.copy(exchange.getRequestBody(), tmp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            exchange.sendResponseHeaders(201, -1);
+          }
+          default -> exchange.sendResponseHeaders(405, -1);
+          }
+        }
+      });
+      server.start();
+      log.info("Cache server on http://{}:{}/ storing in {}", bind, server.getAddress().getPort(), dir);
+      return server;
+    }
+  }
+
+  /**
+   * Fingerprints of input files: xxHash64 of the content, read through a memory mapping for files over
+   * {@link #MMAP_THRESHOLD} and through a per thread buffer otherwise. {@code (path, size, mtime, inode) -> hash} is kept in
+   * {@code .zild/hashes.bin} so unchanged files are never read again; files modified in the last
+   * {@link #RACY_MILLIS} ms are not remembered since a later change could keep the same mtime. Directory trees are walked
+   * in parallel with fork/join (inside the executor pool when called from a task).
+   */
+  public static class FileHasher {
+    static final Logger log = LoggerFactory.getLogger(FileHasher.class);
+    static final int MAGIC = 0x7a686173;
+    static final int VERSION = 1;
+    static final long MMAP_THRESHOLD = 1 << 20;
+    static final int MMAP_CHUNK = 64 << 20;
+    static final long RACY_MILLIS = 2000;
+    static final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(64 * 1024));
+    static boolean unixAttributes = true;
+
+    record Entry(long size, long mtime, long inode, long hash) {
+    }
+
+    public static class Metrics {
+      final LongAdder lookups = new LongAdder();
+      final LongAdder hits = new LongAdder();
+      final LongAdder bytes = new LongAdder();
+      final LongAdder nanos = new LongAdder();
+
+      public double hitRate() {
+        return lookups.sum() == 0 ? 0 : (double) hits.sum() / lookups.sum();
+      }
+
+      /** MB/s of the files actually read. */
+      public double throughput() {
+        return nanos.sum() == 0 ? 0 : bytes.sum() / 1e6 / (nanos.sum() / 1e9);
+      }
+
+      @Override
+      public String toString() {
+        return String.format("%d files, %.1f%% unchanged, read %.1f MB in %d ms (%.0f MB/s)", lookups.sum(),
+            hitRate() * 100, bytes.sum() / 1e6, nanos.sum() / 1_000_000, throughput());
+      }
+    }
+
+    final Path table;
+    final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    /** Files hashed by this process, known to exist: save skips their existence check. */
+    final Set<String> used = ConcurrentHashMap.newKeySet();
+    public final Metrics metrics = new Metrics();
+    volatile boolean changed;
+
+    FileHasher(Path table) {
+      this.table = table;
+    }
+
+    public static FileHasher open(Path table) {
+      FileHasher hasher = new FileHasher(table);
+      if (!Files.exists(table))
+        return hasher;
+      try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(table)))) {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION)
+          return hasher;
+        for (int i = in.readInt(); i > 0; i--)
+          hasher.entries.put(in.readUTF(), new Entry(in.readLong(), in.readLong(), in.readLong(), in.readLong()));
+      } catch (IOException e) {
+        log.warn("Ignoring unreadable {}: {}", table, e.toString());
+        hasher.entries.clear();
+      }
+      return hasher;
+    }
+
+    /**
+     * Writes the table (temporary file and move) when new hashes were computed or entries of deleted files were dropped.
+     * Entries of existing files are kept even when this process did not hash them, so {@code --module a} then
+     * {@code --module b} keeps the fingerprints of both.
+     */
+    public void save() throws IOException {
+      boolean pruned = entries.keySet().removeIf(key -> !used.contains(key) && Files.notExists(Path.of(key)));
+      if (!changed && !pruned)
+        return;
+      Files.createDirectories(table.getParent());
+      Path tmp = table.resolveSibling(table.getFileName() + ".tmp");
+      try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(entries.size());
+        for (var e : entries.entrySet()) {
+          out.writeUTF(e.getKey());
+          out.writeLong(e.getValue().size());
+          out.writeLong(e.getValue().mtime());
+          out.writeLong(e.getValue().inode());
+          out.writeLong(e.getValue().hash());
+        }
+      }
+      Files.move(tmp, table, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      changed = false;
+    }
+
+    public long hash(Path file) throws IOException {
+      return hash(file, null);
+    }
+
+    /** Also adds the file size to {@code bytes} when not null. */
+    public long hash(Path file, LongAdder bytes) throws IOException {
+      metrics.lookups.increment();
+      String key = file.toAbsolutePath().normalize().toString();
+      used.add(key);
+      long size, mtime, inode;
+      if (unixAttributes) {
+        try {
+          Map<String, Object> attributes = Files.readAttributes(file, "unix:size,lastModifiedTime,ino");
+          size = (Long) attributes.get("size");
+          mtime = ((FileTime) attributes.get("lastModifiedTime")).to(TimeUnit.NANOSECONDS);
+          inode = (Long) attributes.get("ino");
+        } catch (UnsupportedOperationException e) {
+          unixAttributes = false;
+          return hash(file, bytes);
+        }
+      } else {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        size = attributes.size();
+        mtime = attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        inode = Objects.hashCode(attributes.fileKey());
+      }
+      if (bytes != null)
+        bytes.add(size);
+      Entry entry = entries.get(key);
+      if (entry != null && entry.size() == size && entry.mtime() == mtime && entry.inode() == inode) {
+        metrics.hits.increment();
+        return entry.hash();
+      }
+      long start = System.nanoTime();
+      long hash = read(file, size);
+      metrics.nanos.add(System.nanoTime() - start);
+      metrics.bytes.add(size);
+      if (TimeUnit.NANOSECONDS.toMillis(mtime) < System.currentTimeMillis() - RACY_MILLIS) {
+        entries.put(key, new Entry(size, mtime, inode, hash));
+        changed = true;
+      }
+      return hash;
+    }
+
+    static long read(Path file, long size) throws IOException {
+      XxHash64 xx = new XxHash64();
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+        if (size >= MMAP_THRESHOLD) {
+          for (long position = 0; position < size; position += MMAP_CHUNK)
+            xx.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MMAP_CHUNK, size - position)));
+        } else {
+          ByteBuffer buffer = buffers.get();
+          for (buffer.clear(); channel.read(buffer) > 0; buffer.clear()) {
+            buffer.flip();
+            xx.update(buffer);
+          }
+        }
+      }
+      return xx.digest();
+    }
+
+    /** Hashes of the regular files under root (or root itself when a file), sorted by path. */
+    public SortedMap<Path, Long> hashTree(Path root, Predicate<Path> filter) throws IOException {
+      return hashTree(root, filter, null);
+    }
+
+    /** Also adds the size of the hashed files to {@code bytes} when not null. */
+    public SortedMap<Path, Long> hashTree(Path root, Predicate<Path> filter, LongAdder bytes) throws IOException {
+      SortedMap<Path, Long> hashes = new ConcurrentSkipListMap<>();
+      if (Files.isRegularFile(root)) {
+        if (filter.test(root))
+          hashes.put(root, hash(root, bytes));
+      } else if (Files.isDirectory(root)) {
+        try {
+          new HashDirectory(this, root, filter, hashes, bytes).invoke();
+        } catch (UncheckedIOException e) {
+          throw e.getCause();
+        }
+      }
+      return hashes;
+    }
+
+    static class HashDirectory extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+      final transient FileHasher hasher;
+      final transient Path dir;
+      final transient Predicate<Path> filter;
+      final transient Map<Path, Long> hashes;
+      final transient LongAdder bytes;
+
+      HashDirectory(FileHasher hasher, Path dir, Predicate<Path> filter, Map<Path, Long> hashes, LongAdder bytes) {
+        this.hasher = hasher;
+        this.dir = dir;
+        this.filter = filter;
+        this.hashes = hashes;
+        this.bytes = bytes;
+      }
+
+      @Override
+      protected void compute() {
+        List<HashDirectory> subdirs = new ArrayList<>();
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(dir)) {
+          for (Path child : children) {
+            if (Files.isDirectory(child))
+              subdirs.add(new HashDirectory(hasher, child, filter, hashes, bytes));
+            else if (Files.isRegularFile(child) && filter.test(child))
+              hashes.put(child, hasher.hash(child, bytes));
+          }
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+        invokeAll(subdirs);
+      }
+    }
+  }
+
+  /** Streaming XXH64 (seed 0). */
+  static final class XxHash64 {
+    static final long P1 = 0x9E3779B185EBCA87L;
+    static final long P2 = 0xC2B2AE3D27D4EB4FL;
+    static final long P3 = 0x165667B19E3779F9L;
+    static final long P4 = 0x85EBCA77C2B2AE63L;
+    static final long P5 = 0x27D4EB2F165667C5L;
+    long v1 = P1 + P2, v2 = P2, v3 = 0, v4 = -P1;
+    long total;
+    final ByteBuffer pending = ByteBuffer.allocate(32).order(ByteOrder.LITTLE_ENDIAN);
+
+    void update(ByteBuffer in) {
+      in.order(ByteOrder.LITTLE_ENDIAN);
+      total += in.remaining();
+      if (pending.position() > 0) {
+        while (pending.hasRemaining() && in.hasRemaining())
+          pending.put(in.get());
+        if (pending.hasRemaining())
+          return;
+        pending.flip();
+        stripe(pending);
+        pending.clear();
+      }
+      while (in.remaining() >= 32)
+        stripe(in);
+      pending.put(in);
+    }
+
+    private void stripe(ByteBuffer b) {
+      v1 = round(v1, b.getLong());
+      v2 = round(v2, b.getLong());
+      v3 = round(v3, b.getLong());
+      v4 = round(v4, b.getLong());
+    }
+
+    static long round(long acc, long input) {
+      return Long.rotateLeft(acc + input * P2, 31) * P1;
+    }
+
+    static long merge(long acc, long v) {
+      return (acc ^ round(0, v)) * P1 + P4;
+    }
+
+    long digest() {
+      long h;
+      if (total >= 32) {
+        h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+        h = merge(merge(merge(merge(h, v1), v2), v3), v4);
+      } else {
+        h = P5;
+      }
+      h += total;
+      ByteBuffer tail = pending.duplicate().flip().order(ByteOrder.LITTLE_ENDIAN);
+      while (tail.remaining() >= 8)
+        h = Long.rotateLeft(h ^ round(0, tail.getLong()), 27) * P1 + P4;
+      if (tail.remaining() >= 4)
+        h = Long.rotateLeft(h ^ (tail.getInt() & 0xFFFFFFFFL) * P1, 23) * P2 + P3;
+      while (tail.hasRemaining())
+        h = Long.rotateLeft(h ^ (tail.get() & 0xFF) * P5, 11) * P1;
+      h ^= h >>> 33;
+      h *= P2;
+      h ^= h >>> 29;
+      h *= P3;
+      return h ^ (h >>> 32);
+    }
+  }
+
+  /**
+   * Runs a dependency ordered task list on a work-stealing pool: every task is a future started when the futures of its
+   * dependencies complete. A failed task fails its dependents, independent tasks still run.
+   */
+  public static class TaskExecutor implements AutoCloseable {
+    static final Logger log = LoggerFactory.getLogger(TaskExecutor.class);
+    final ObjectMapper yaml = new ObjectMapper(new YAMLFactory());
+    final int threads;
+    final TaskCache cache;
+    final RemoteCache remote;
+    final Path stateDir;
+    final JavacRunner javac;
+    final ForkJoinPool pool;
+
+    public TaskExecutor(int threads, TaskCache cache, RemoteCache remote, Path stateDir, FileHasher hasher) {
+      this.threads = threads;
+      this.pool = new ForkJoinPool(Math.max(1, threads));
+      this.cache = cache;
+      this.remote = cache == null ? null : remote;
+      this.stateDir = stateDir;
+      this.javac = new JavacRunner(stateDir.resolve("javac"), hasher);
+    }
+
+    /** Runs the plan; dependencies outside of it are taken as done. */
+    public boolean execute(List<TaskNode> plan) {
+      TaskTrace trace = new TaskTrace(threads);
+      Map<TaskNode, CompletableFuture<Void>> futures = new HashMap<>();
+      for (TaskNode node : plan) {
+        CompletableFuture<?>[] deps = node.deps.stream().map(futures::get).filter(f -> f != null)
+            .toArray(CompletableFuture[]::new);
+        futures.put(node, schedule(node, CompletableFuture.allOf(deps), trace));
+      }
+      long failed = futures.values().stream().filter(f -> {
+        try {
+          f.join();
+          return false;
+        } catch (CompletionException | CancellationException e) {
+          return true;
+        }
+      }).count();
+      if (failed > 0)
+        log.error("{} of {} tasks failed or were skipped", failed, plan.size());
+      try {
+        trace.write(stateDir.resolve("trace.json"));
+      } catch (IOException e) {
+        log.warn("Cannot write trace: {}", e.toString());
+      }
+      return failed == 0;
+    }
+
+    @Override
+    public void close() {
+      pool.shutdown();
+    }
+
+    /** Outcome of the cache lookups of a task: local entry restored, or the remote archive when there was one. */
+    record Lookup(String key, boolean restored, byte[] archive, long start, long bytesIn, long bytesOut) {
+    }
+
+    /** Status for the trace (cache, remote or run) and the output bytes copied from or to the cache. */
+    record Finished(String status, long bytesOut) {
+    }
+
+    /**
+     * Key and local lookup on the pool, then the remote lookup as a non blocking http request, then the restore or the run
+     * on the pool. Remote round trips of independent tasks overlap instead of holding workers.
+     */
+    CompletableFuture<Void> schedule(TaskNode node, CompletableFuture<Void> deps, TaskTrace trace) {
+      return deps.thenApplyAsync(v -> {
+        long start = System.nanoTime();
+        return traced(node, trace, start, () -> lookup(node, start));
+      }, pool)
+          .thenCompose(l -> l.restored() || l.key() == null || remote == null ? CompletableFuture.completedFuture(l)
+              : remote.fetch(l.key()).thenApply(archive -> new Lookup(l.key(), false, archive, l.start(), l.bytesIn(), 0)))
+          .thenAcceptAsync(l -> {
+            Finished finished = traced(node, trace, l.start(), () -> finish(node, l));
+            trace.record(node, l.start(), finished.status(), l.bytesIn(), finished.bytesOut());
+          }, pool);
+    }
+
+    static <T> T traced(TaskNode node, TaskTrace trace, long start, Step<T> step) {
+      try {
+        return guard(node, step);
+      } catch (RuntimeException e) {
+        trace.record(node, start, "failed", 0, 0);
+        throw e;
+      }
+    }
+
+    Lookup lookup(TaskNode node, long start) throws IOException {
+      LongAdder bytesIn = new LongAdder();
+      String key = cache == null ? null : cache.key(node, commandLine(node.task), bytesIn);
+      long restored = key == null ? -1 : cache.restore(key, node.outputs);
+      if (restored >= 0) {
+        log.info("{} from cache {}", node, key.substring(0, 12));
+        return new Lookup(key, true, null, start, bytesIn.sum(), restored);
+      }
+      return new Lookup(key, false, null, start, bytesIn.sum(), 0);
+    }
+
+    Finished finish(TaskNode node, Lookup lookup) throws IOException, InterruptedException {
+      if (lookup.restored())
+        return new Finished("cache", lookup.bytesOut());
+      if (lookup.archive() != null) {
+        try {
+          cache.unpack(lookup.key(), lookup.archive());
+          long restored = cache.restore(lookup.key(), node.outputs);
+          log.info("{} from remote cache {}", node, lookup.key().substring(0, 12));
+          return new Finished("remote", restored);
+        } catch (IOException e) {
+          // remote errors never fail the build: the task runs as on a miss
+          log.warn("{}: unusable remote cache entry, running the task: {}", node, e.getMessage());
+        }
+      }
+      switch (node.task.tool != null ? "" : String.valueOf(node.task.process)) {
+      case "javac" -> javac.compile(node);
+      case "annotation-processor" -> javac.processAnnotations(node);
+      case "copy" -> copy(node);
+      case "jar" -> jar(node);
+      default -> exec(node, commandLine(node.task));
+      }
+      long stored = 0;
+      if (lookup.key() != null) {
+        stored = cache.store(lookup.key(), node.outputs);
+        if (remote != null)
+          remote.upload(lookup.key());
+      }
+      return new Finished("run", stored);
+    }
+
+    interface Step<T> {
+      T call() throws IOException, InterruptedException;
+    }
+
+    static <T> T guard(TaskNode node, Step<T> step) {
+      try {
+        return step.call();
+      } catch (IOException e) {
+        log.error("Task {} failed: {}", node, e.toString());
+        throw new RuntimeException(e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(e);
+      } catch (RuntimeException e) {
+        log.error(e.getMessage());
+        throw e;
+      }
+    }
+
+    /** Built in {@code process: copy}: the content of the inputs merged into the first output, which is replaced. */
+    static void copy(TaskNode node) throws IOException {
+      if (node.outputs.isEmpty())
+        throw new RuntimeException("Task " + node + " has no output directory to copy to");
+      Path target = node.outputs.get(0);
+      TaskCache.deleteTree(target);
+      Files.createDirectories(target);
+      for (Path input : node.inputs)
+        if (Files.exists(input))
+          TaskCache.copyTree(input, Files.isDirectory(input) ? target : target.resolve(input.getFileName().toString()));
+    }
+
+    /**
+     * Built in {@code process: jar}: the files of the input directories (and input files at the root) zipped into the first
+     * output, sorted and with a fixed timestamp so equal inputs give an equal jar. {@code mainClass} goes in the manifest.
+     */
+    static void jar(TaskNode node) throws IOException {
+      if (node.outputs.isEmpty())
+        throw new RuntimeException("Task " + node + " has no output jar");
+      Path jar = node.outputs.get(0);
+      Manifest manifest = new Manifest();
+      manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+      manifest.getMainAttributes().putValue("Created-By", "zild");
+      if (node.task.mainClass != null)
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, node.task.mainClass);
+      Map<String, Path> entries = new TreeMap<>();
+      for (Path input : node.inputs) {
+        if (Files.isRegularFile(input)) {
+          entries.putIfAbsent(input.getFileName().toString(), input);
+        } else if (Files.isDirectory(input)) {
+          try (var files = Files.walk(input)) {
+            files.filter(Files::isRegularFile)
+                .forEach(f -> entries.putIfAbsent(input.relativize(f).toString().replace('\\', '/'), f));
+          }
+        }
+      }
+      entries.remove(JarFile.MANIFEST_NAME);
+      Files.createDirectories(jar.toAbsolutePath().getParent());
+      Path tmp = jar.resolveSibling(jar.getFileName() + ".tmp");
+      try (var out = new JarOutputStream(Files.newOutputStream(tmp))) {
+        out.putNextEntry(timestamped(new JarEntry(JarFile.MANIFEST_NAME)));
+        manifest.write(out);
+        Set<String> directories = new HashSet<>();
+        for (var entry : entries.entrySet()) {
+          String name = entry.getKey();
+          for (int slash = name.indexOf('/'); slash >= 0; slash = name.indexOf('/', slash + 1))
+            if (directories.add(name.substring(0, slash + 1)))
+              out.putNextEntry(timestamped(new JarEntry(name.substring(0, slash + 1))));
+          out.putNextEntry(timestamped(new JarEntry(name)));
+          Files.copy(entry.getValue(), out);
+        }
+      }
+      Files.move(tmp, jar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      log.info("{}: {} entries in {}", node, entries.size(), jar.getFileName());
+    }
+
+    private static JarEntry timestamped(JarEntry entry) {
+      entry.setTime(REPRODUCIBLE_TIME);
+      return entry;
+    }
+
+    void exec(TaskNode node, List<String> command) throws IOException, InterruptedException {
+      if (node.task.tool == null)
+        throw new RuntimeException("Task " + node + " has no tool and process '" + node.task.process + "' is not built in");
+      Path input = stateDir.resolve("tasks").resolve(node.module.path).resolve(node.name).resolve("plugin-input.yaml")
+          .normalize();
+      Files.createDirectories(input.getParent());
+      Files.writeString(input, yaml.writerWithDefaultPrettyPrinter().writeValueAsString(node.task));
+      log.info("Running task '{}': {}", node, command);
+      ProcessBuilder builder = new ProcessBuilder(command).inheritIO();
+      if (node.task.env != null)
+        builder.environment().putAll(node.task.env);
+      builder.environment().put("ZILD_PLUGIN_INPUT", input.toString());
+      int exit = builder.start().waitFor();
+      if (exit != 0)
+        throw new RuntimeException("Task " + node + " failed with exit code " + exit);
+    }
+
+    /** Processes run inside zild for tasks without a tool. */
+    static final Set<String> BUILT_IN = new TreeSet<>(List.of("javac", "annotation-processor", "copy", "jar"));
+    /** 1980-02-01, the zip epoch with room for time zones, as gradle uses for reproducible archives. */
+    static final long REPRODUCIBLE_TIME = 318211200000L;
+
+    /** Built-in processes (no tool) are keyed by their name. */
+    static List<String> commandLine(ZildLock.Task task) {
+      if (task.tool == null)
+        return List.of("zild:" + task.process);
+      return List.of(task.tool, task.script);
+    }
+  }
+
+  /**
+   * Built-in {@code process: javac} (tasks without a tool): compiles in the zild jvm with javax.tools instead of forking a
+   * jvm per module. Inputs produced by other tasks and jars are the classpath, the other inputs are source roots, the first
+   * output is the class directory and flags are javac options.
+   * <p>
+   * Compilation is incremental. {@code .zild/javac/<module>/<task>.json} records per source its hash, the top level types it
+   * defines and the types it references (collected from the attributed trees), plus the hash of every class file on the
+   * classpath. Changed or removed sources, and sources referencing types of changed sources or changed classpath classes,
+   * are recompiled (transitively) against the previous classes; a changed jar or option set means a full compile.
+   */
+  public static class JavacRunner {
+    static final Logger log = LoggerFactory.getLogger(JavacRunner.class);
+    final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    /**
+     * StandardJavaFileManager is not thread safe: a compile borrows one, they are kept with the jars they have opened across
+     * modules and `run --watch` cycles.
+     */
+    final Queue<StandardJavaFileManager> fileManagers = new ConcurrentLinkedQueue<>();
+    final ObjectMapper json = new ObjectMapper();
+    final Path stateDir;
+    final FileHasher hasher;
+
+    public static class State {
+      public String options;
+      public Map<String, String> sources = new TreeMap<>();
+      public Map<String, Set<String>> types = new TreeMap<>();
+      public Map<String, Set<String>> references = new TreeMap<>();
+      public Map<String, String> classpath = new TreeMap<>();
+      /** Class files written, checked before trusting the state: cache restores replace them behind its back. */
+      public Map<String, String> classes = new TreeMap<>();
+    }
+
+    public JavacRunner(Path stateDir, FileHasher hasher) {
+      this.stateDir = stateDir;
+      this.hasher = hasher;
+    }
+
+    /**
+     * Inputs by content: jars and directories of class files are the classpath, directories with java files are source roots
+     * (also when another task generated them). Missing or empty inputs are classpath when produced by another task.
+     */
+    static void splitInputs(TaskNode node, List<Path> classpath, List<Path> sourceRoots) throws IOException {
+      Set<Path> produced = produced(node);
+      for (Path input : node.inputs) {
+        if (Files.isRegularFile(input))
+          (input.toString().endsWith(".java") ? sourceRoots : classpath).add(input);
+        else if (contains(input, ".java"))
+          sourceRoots.add(input);
+        else if (produced.contains(input) || contains(input, ".class"))
+          classpath.add(input);
+        else
+          sourceRoots.add(input);
+      }
+    }
+
+    static Set<Path> produced(TaskNode node) {
+      return StreamEx.of(node.deps).flatCollection(d -> d.outputs).toSet();
+    }
+
+    static boolean contains(Path dir, String extension) throws IOException {
+      if (!Files.isDirectory(dir))
+        return false;
+      try (var files = Files.walk(dir)) {
+        return files.anyMatch(f -> f.toString().endsWith(extension) && Files.isRegularFile(f));
+      }
+    }
+
+    /**
+     * Built in {@code process: annotation-processor}: javac {@code -proc:only} over the source roots, the processors found on
+     * the classpath (or in the flags' {@code -processorpath}) write their sources into the first output, which is replaced.
+     * Not incremental: the task cache skips it when nothing changed.
+     */
+    public void processAnnotations(TaskNode node) throws IOException {
+      if (compiler == null)
+        throw new RuntimeException("Task " + node + " needs a JDK: no system java compiler");
+      if (node.outputs.isEmpty())
+        throw new RuntimeException("Task " + node + " has no output directory for generated sources");
+      Path generated = node.outputs.get(0);
+      List<Path> classpath = new ArrayList<>();
+      List<Path> sourceRoots = new ArrayList<>();
+      splitInputs(node, classpath, sourceRoots);
+      Set<String> sources = new TreeSet<>();
+      for (Path sourceRoot : sourceRoots)
+        if (Files.isDirectory(sourceRoot))
+          hasher.hashTree(sourceRoot, f -> f.toString().endsWith(".java")).keySet().forEach(f -> sources.add(f.toString()));
+      TaskCache.deleteTree(generated);
+      Files.createDirectories(generated);
+      List<String> options = new ArrayList<>(nullSafe(node.task.flags));
+      options.add("-proc:only");
+      if (!sources.isEmpty())
+        javac(node, generated, generated, classpath, options, sources, null);
+      log.info("{}: processed {} sources", node, sources.size());
+    }
+
+    /** The number of sources compiled. */
+    public int compile(TaskNode node) throws IOException {
+      if (compiler == null)
+        throw new RuntimeException("Task " + node + " needs a JDK: no system java compiler");
+      if (node.outputs.isEmpty())
+        throw new RuntimeException("Task " + node + " has no output directory for classes");
+      Path classes = node.outputs.get(0);
+      List<Path> classpath = new ArrayList<>();
+      List<Path> sourceRoots = new ArrayList<>();
+      splitInputs(node, classpath, sourceRoots);
+      List<String> options = new ArrayList<>(nullSafe(node.task.flags));
+      // sources generated by an annotation-processor task are compiled, the processors must not generate them again
+      if (sourceRoots.stream().anyMatch(produced(node)::contains) && options.stream().noneMatch(o -> o.startsWith("-proc:")))
+        options.add("-proc:none");
+      State state = new State();
+      state.options = String.join(" ", options) + " -cp " + classpath;
+      state.classpath = classpathHashes(classpath);
+      for (Path sourceRoot : sourceRoots)
+        hasher.hashTree(sourceRoot, f -> f.toString().endsWith(".java"))
+            .forEach((source, hash) -> state.sources.put(source.toString(), HexFormat.of().toHexDigits(hash)));
+
+      Path stateFile = stateDir.resolve(node.module.path).resolve(node.name + ".json").normalize();
+      State previous = Files.exists(stateFile) && Files.isDirectory(classes) ? json.readValue(stateFile.toFile(), State.class)
+          : null;
+      if (previous != null && !previous.classes.equals(classpathHashes(List.of(classes)))) {
+        log.info("{}: {} changed since the last compile, compiling all sources", node, classes);
+        previous = null;
+      }
+      Set<String> dirty = previous == null || !previous.options.equals(state.options)
+          || jarChanged(previous.classpath, state.classpath) ? new TreeSet<>(state.sources.keySet())
+              : dirtySources(previous, state);
+      if (previous != null) {
+        State last = previous;
+        last.sources.keySet().stream().filter(s -> !state.sources.containsKey(s) || dirty.contains(s))
+            .forEach(s -> deleteClasses(classes, last.types.getOrDefault(s, Set.of())));
+        last.types.forEach((s, t) -> {
+          if (state.sources.containsKey(s) && !dirty.contains(s)) {
+            state.types.put(s, t);
+            state.references.put(s, last.references.getOrDefault(s, Set.of()));
+          }
+        });
+      }
+      Files.deleteIfExists(stateFile);
+      if (!dirty.isEmpty())
+        javac(node, classes, null, classpath, options, dirty, state);
+      state.classes = classpathHashes(List.of(classes));
+      Files.createDirectories(stateFile.getParent());
+      json.writeValue(stateFile.toFile(), state);
+      log.info("{}: compiled {} of {} sources", node, dirty.size(), state.sources.size());
+      return dirty.size();
+    }
+
+    /** Changed, added and dependent sources. Types of changed and removed sources propagate to their referrers. */
+    static Set<String> dirtySources(State previous, State state) {
+      Set<String> dirty = new TreeSet<>();
+      Set<String> changedTypes = new HashSet<>();
+      previous.classpath.forEach((clazz, hash) -> {
+        if (!hash.equals(state.classpath.get(clazz)))
+          changedTypes.add(topLevel(clazz));
+      });
+      state.classpath.keySet().stream().filter(c -> !previous.classpath.containsKey(c)).map(JavacRunner::topLevel)
+          .forEach(changedTypes::add);
+      previous.sources.forEach((source, hash) -> {
+        if (!hash.equals(state.sources.get(source)))
+          changedTypes.addAll(previous.types.getOrDefault(source, Set.of()));
+      });
+      state.sources.forEach((source, hash) -> {
+        if (!hash.equals(previous.sources.get(source)))
+          dirty.add(source);
+      });
+      boolean grown = true;
+      while (grown) {
+        grown = false;
+        for (String source : state.sources.keySet()) {
+          if (!dirty.contains(source)
+              && previous.references.getOrDefault(source, Set.of()).stream().anyMatch(changedTypes::contains)) {
+            dirty.add(source);
+            changedTypes.addAll(previous.types.getOrDefault(source, Set.of()));
+            grown = true;
+          }
+        }
+      }
+      return dirty;
+    }
+
+    /** {@code generated}: where processors write sources, the class directory when null. {@code state}: null to skip tracking. */
+    private void javac(TaskNode node, Path classes, Path generated, List<Path> classpath, List<String> options,
+        Set<String> sources, State state) throws IOException {
+      Files.createDirectories(classes);
+      StandardJavaFileManager fileManager = fileManagers.poll();
+      if (fileManager == null)
+        fileManager = compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8);
+      try {
+        fileManager.setLocationFromPaths(StandardLocation.CLASS_OUTPUT, List.of(classes));
+        fileManager.setLocationFromPaths(StandardLocation.SOURCE_OUTPUT, List.of(generated != null ? generated : classes));
+        List<Path> searchPath = new ArrayList<>();
+        searchPath.add(classes);
+        classpath.stream().filter(Files::exists).forEach(searchPath::add);
+        fileManager.setLocationFromPaths(StandardLocation.CLASS_PATH, searchPath);
+        fileManager.setLocationFromPaths(StandardLocation.SOURCE_PATH, List.of());
+        var units = fileManager.getJavaFileObjectsFromPaths(StreamEx.of(sources).map(Path::of).toList());
+        JavacTask task = (JavacTask) compiler.getTask(null, fileManager, null, options, null, units);
+        Trees trees = Trees.instance(task);
+        Set<CompilationUnitTree> scanned = new HashSet<>();
+        if (state != null)
+          task.addTaskListener(new TaskListener() {
+            @Override
+            public void finished(TaskEvent e) {
+              if (e.getKind() != TaskEvent.Kind.ANALYZE || e.getTypeElement() == null)
+                return;
+              String source = Path.of(e.getSourceFile().toUri()).toString();
+              state.types.computeIfAbsent(source, s -> new TreeSet<>()).add(e.getTypeElement().getQualifiedName().toString());
+              if (scanned.add(e.getCompilationUnit()))
+                state.references.put(source, references(trees, e.getCompilationUnit()));
+            }
+          });
+        if (!task.call())
+          throw new RuntimeException("Task " + node + ": javac failed");
+      } finally {
+        fileManagers.add(fileManager);
+      }
+    }
+
+    /** Top level types used by identifiers and member selects of the unit. */
+    static Set<String> references(Trees trees, CompilationUnitTree unit) {
+      Set<String> types = new TreeSet<>();
+      new TreePathScanner<Void, Void>() {
+        @Override
+        public Void visitIdentifier(IdentifierTree tree, Void p) {
+          add(trees.getElement(getCurrentPath()));
+          return super.visitIdentifier(tree, p);
+        }
+
+        @Override
+        public Void visitMemberSelect(MemberSelectTree tree, Void p) {
+          add(trees.getElement(getCurrentPath()));
+          return super.visitMemberSelect(tree, p);
+        }
+
+        void add(Element element) {
+          while (element != null && !(element instanceof TypeElement type
+              && type.getEnclosingElement() instanceof PackageElement))
+            element = element.getEnclosingElement();
+          if (element != null)
+            types.add(((TypeElement) element).getQualifiedName().toString());
+        }
+      }.scan(unit, null);
+      return types;
+    }
+
+    /** Class file of a class directory by binary name, or the whole jar by {@code jar:<path>}. */
+    Map<String, String> classpathHashes(List<Path> classpath) throws IOException {
+      Map<String, String> hashes = new TreeMap<>();
+      for (Path entry : classpath) {
+        if (Files.isRegularFile(entry)) {
+          hashes.put("jar:" + entry, HexFormat.of().toHexDigits(hasher.hash(entry)));
+        } else if (Files.isDirectory(entry)) {
+          hasher.hashTree(entry, f -> f.toString().endsWith(".class")).forEach((file, hash) -> {
+            String name = entry.relativize(file).toString().replace('\\', '/');
+            hashes.put(name.substring(0, name.length() - ".class".length()).replace('/', '.'),
+                HexFormat.of().toHexDigits(hash));
+          });
+        }
+      }
+      return hashes;
+    }
+
+    static boolean jarChanged(Map<String, String> previous, Map<String, String> current) {
+      return EntryStream.of(previous).append(current).keys().filter(k -> k.startsWith("jar:")).distinct()
+          .anyMatch(k -> !Objects.equals(previous.get(k), current.get(k)));
+    }
+
+    static String topLevel(String binaryName) {
+      int nested = binaryName.indexOf('$');
+      return nested < 0 ? binaryName : binaryName.substring(0, nested);
+    }
+
+    /** The class files of top level types, nested and anonymous classes included. */
+    static void deleteClasses(Path classes, Set<String> types) {
+      for (String type : types) {
+        Path file = classes.resolve(type.replace('.', '/') + ".class");
+        String simple = file.getFileName().toString().replace(".class", "");
+        try (var siblings = Files.list(file.getParent())) {
+          for (Path sibling : siblings.toList()) {
+            String name = sibling.getFileName().toString();
+            if (name.equals(simple + ".class") || name.startsWith(simple + "$"))
+              Files.delete(sibling);
+          }
+        } catch (NoSuchFileException e) {
+          // package directory already gone
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    }
+  }
+
+  static <T> List<T> nullSafe(List<T> list) {
+    return list == null ? List.of() : list;
+  }
+
   public static class ZildSpec {
     public boolean root = false;
     public Map<String, Template> templates = new HashMap<>();
@@ -207,6 +1907,9 @@ public class zild {
       public String id;
       public boolean root;
 
+      public Project() {
+      }
+
       public Project(String id, boolean root) {
         this.id = id;
         this.root = root;
@@ -219,6 +1922,9 @@ public class zild {
       public Map<String, Task> tasks = new LinkedHashMap<>();
       public List<Artifact> artifacts = new ArrayList<>();
 
+      public ResolvedModule() {
+      }
+
       public ResolvedModule(String path, String id, String template) {
         this.path = path;
         this.id = id;
@@ -229,6 +1935,9 @@ public class zild {
     public static class Layout {
       public String source, output;
 
+      public Layout() {
+      }
+
       public Layout(String s, String o) {
         source = s;
         output = o;
@@ -236,7 +1945,7 @@ public class zild {
     }
 
     public static class Task {
-      public String tool, script, mainClass;
+      public String tool, script, mainClass, process;
       public List<String> inputs, outputs, flags;
       public Map<String, String> env;
       public Boolean optional;
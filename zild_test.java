@@ -0,0 +1,173 @@
+//usr/bin/env jbang "$0" "$@" ; exit $?
+//Description: Tests for zild, run with `jbang zild_test.java`
+//SOURCES zild.java
+//SOURCES com/namekis/utils/RichTest.java
+//SOURCES com/namekis/utils/RichTestCli.java
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import com.namekis.utils.RichTestCli;
+
+public class zild_test {
+  public static void main(String... args) {
+    RichTestCli.main2(args);
+  }
+
+  /** Module m: compile {@code m/src} (and {@code m/generated}, copied from {@code m/gen-src} by task gen) to {@code m/classes}. */
+  static zild.TaskGraph graph(Path dir) throws IOException {
+    zild.ZildLock lock = new ObjectMapper(new YAMLFactory()).readValue("""
+        modules:
+          m:
+            path: m
+            tasks:
+              gen: {process: copy, inputs: [gen-src], outputs: [generated]}
+              compile: {process: javac, inputs: [src, generated], outputs: [classes]}
+        """, zild.ZildLock.class);
+    return zild.TaskGraph.of(lock, dir);
+  }
+
+  static void write(Path dir, String file, String content) throws IOException {
+    Files.createDirectories(dir.resolve(file).getParent());
+    Files.writeString(dir.resolve(file), content);
+  }
+
+  static int compile(Path dir) throws IOException {
+    zild.TaskGraph graph = graph(dir);
+    zild.TaskExecutor.copy(graph.nodes.get("m:gen"));
+    zild.FileHasher hasher = zild.FileHasher.open(dir.resolve(".zild/hashes.bin"));
+    return new zild.JavacRunner(dir.resolve(".zild/javac"), hasher).compile(graph.nodes.get("m:compile"));
+  }
+
+  @Test
+  void changedTypeRecompilesItsReferrersOnly(@TempDir Path dir) throws IOException {
+    write(dir, "m/src/p/A.java", "package p; public class A { public static int v() { return 1; } }");
+    write(dir, "m/src/p/B.java", "package p; public class B { int x = A.v(); }");
+    write(dir, "m/src/p/C.java", "package p; public class C { }");
+    assertEquals(3, compile(dir));
+    assertEquals(0, compile(dir));
+    write(dir, "m/src/p/A.java", "package p; public class A { public static int v() { return 2; } }");
+    // A changed, B references A, C is untouched
+    assertEquals(2, compile(dir));
+    assertTrue(Files.exists(dir.resolve("m/classes/p/C.class")));
+  }
+
+  @Test
+  void removedSourceLosesItsClasses(@TempDir Path dir) throws IOException {
+    write(dir, "m/src/p/A.java", "package p; public class A { }");
+    write(dir, "m/src/p/C.java", "package p; public class C { }");
+    assertEquals(2, compile(dir));
+    Files.delete(dir.resolve("m/src/p/C.java"));
+    assertEquals(0, compile(dir));
+    assertTrue(Files.exists(dir.resolve("m/classes/p/A.class")));
+    assertTrue(Files.notExists(dir.resolve("m/classes/p/C.class")));
+  }
+
+  @Test
+  void nestedAndAnonymousClassesDoNotSurviveTheirSource(@TempDir Path dir) throws IOException {
+    write(dir, "m/src/p/A.java", """
+        package p;
+        public class A {
+          static class Inner { }
+          Runnable r = new Runnable() { public void run() { } };
+        }
+        """);
+    write(dir, "m/src/p/B.java", "package p; public class B { }");
+    assertEquals(2, compile(dir));
+    assertTrue(Files.exists(dir.resolve("m/classes/p/A$Inner.class")));
+    assertTrue(Files.exists(dir.resolve("m/classes/p/A$1.class")));
+    write(dir, "m/src/p/A.java", "package p; public class A { }");
+    assertEquals(1, compile(dir));
+    assertTrue(Files.notExists(dir.resolve("m/classes/p/A$Inner.class")));
+    assertTrue(Files.notExists(dir.resolve("m/classes/p/A$1.class")));
+    assertTrue(Files.exists(dir.resolve("m/classes/p/B.class")));
+  }
+
+  @Test
+  void sourcesGeneratedByAnotherTaskAreCompiled(@TempDir Path dir) throws IOException {
+    write(dir, "m/gen-src/p/G.java", "package p; public class G { public static String name() { return \"g\"; } }");
+    write(dir, "m/src/p/A.java", "package p; public class A { String g = G.name(); }");
+    assertEquals(2, compile(dir));
+    assertTrue(Files.exists(dir.resolve("m/classes/p/G.class")));
+  }
+
+  @Test
+  void remoteArchivesArePublishedOnlyWhenSealed(@TempDir Path dir) throws IOException {
+    String key = "ab" + "0".repeat(62);
+    write(dir, "out/a.txt", "a");
+    zild.TaskCache local = new zild.TaskCache(dir.resolve("local"), dir, null);
+    local.store(key, List.of(dir.resolve("out")));
+    byte[] archive = local.pack(key);
+
+    zild.TaskCache fetched = new zild.TaskCache(dir.resolve("fetched"), dir, null);
+    assertThrows(IOException.class, () -> fetched.unpack(key, "<html>proxy login</html>".getBytes()));
+    assertThrows(IOException.class, () -> fetched.unpack(key, Arrays.copyOf(archive, archive.length / 2)));
+    assertThrows(IOException.class, () -> fetched.unpack("cd" + key.substring(2), archive));
+    assertTrue(Files.notExists(fetched.entry(key)));
+    assertTrue(Files.notExists(fetched.entry("cd" + key.substring(2))));
+
+    fetched.unpack(key, archive);
+    Files.delete(dir.resolve("out/a.txt"));
+    fetched.restore(key, List.of(dir.resolve("out")));
+    assertEquals("a", Files.readString(dir.resolve("out/a.txt")));
+  }
+
+  static String xxh64(byte[] bytes, int chunk) {
+    zild.XxHash64 xx = new zild.XxHash64();
+    for (int i = 0; i < bytes.length; i += chunk)
+      xx.update(ByteBuffer.wrap(bytes, i, Math.min(chunk, bytes.length - i)));
+    return HexFormat.of().toHexDigits(xx.digest());
+  }
+
+  @Test
+  void xxHash64MatchesTheReferenceVectors() {
+    // seed 0; the long input exercises the 32 byte stripes and every tail size
+    Map<String, String> vectors = Map.of("", "ef46db3751d8e999", "a", "d24ec4f1a98c6e5b", "abc", "44bc2cf5ad770999",
+        "message digest", "066ed728fceeb3be", "abcdefghijklmnopqrstuvwxyz", "cfe1f278fa89835c",
+        "1234567890".repeat(8), "e04a477f19ee145d");
+    for (var vector : vectors.entrySet()) {
+      byte[] bytes = vector.getKey().getBytes(StandardCharsets.US_ASCII);
+      for (int chunk : new int[] { Math.max(1, bytes.length), 1, 7, 33 })
+        assertEquals(vector.getValue(), xxh64(bytes, chunk), vector.getKey() + " in chunks of " + chunk);
+    }
+  }
+
+  @Test
+  void savedHashesOfFilesNotHashedThisRunAreKeptUntilDeleted(@TempDir Path dir) throws IOException {
+    Path table = dir.resolve("hashes.bin");
+    write(dir, "a.txt", "a");
+    write(dir, "b.txt", "b");
+    // older than the racy window, so their hashes are recorded
+    for (String file : List.of("a.txt", "b.txt"))
+      Files.setLastModifiedTime(dir.resolve(file), FileTime.fromMillis(System.currentTimeMillis() - 60_000));
+    zild.FileHasher first = zild.FileHasher.open(table);
+    first.hash(dir.resolve("a.txt"));
+    first.save();
+    zild.FileHasher second = zild.FileHasher.open(table);
+    second.hash(dir.resolve("b.txt"));
+    second.save();
+    assertEquals(2, zild.FileHasher.open(table).entries.size());
+    Files.delete(dir.resolve("a.txt"));
+    zild.FileHasher third = zild.FileHasher.open(table);
+    third.save();
+    assertEquals(List.of(dir.resolve("b.txt").toAbsolutePath().normalize().toString()),
+        List.copyOf(zild.FileHasher.open(table).entries.keySet()));
+  }
+}